@@ -0,0 +1,38 @@
+package physicssim;
+
+import java.util.List;
+
+/**
+ * Computes results incrementally while the simulation runs, so no trajectories have to be stored or logged. Implementations
+ * only keep a constant amount of state per tracked object or pair of objects.
+ * <p>
+ * Analyzers are not thread safe, update, report and any getters must only be called by the thread running the simulation.
+ * Other threads read the reports published with every Snapshot.
+ */
+public interface Analyzer {
+
+   /**
+    * Called after every analyzed step.
+    * @param t time in simulation in s
+    * @param objects all objects in the simulation
+    */
+   void update(double t, List<PhysicsObject3D> objects);
+
+   /**
+    * @return human readable summary of the results so far
+    */
+   String report();
+
+   /**
+    * Looks up an object by name.
+    * @param objects objects to search
+    * @param name name of the object
+    * @return object or null if it does not exist (anymore)
+    */
+   static PhysicsObject3D find(List<PhysicsObject3D> objects, String name) {
+      for (PhysicsObject3D obj : objects)
+         if (obj.name.equals(name))
+            return obj;
+      return null;
+   }
+}
@@ -0,0 +1,109 @@
+package physicssim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the fastest combination of gravity solver and timestep for the current objects. Every candidate is briefly run on a
+ * copy of the objects for a fixed number of steps and measured for runtime and relative energy error. The integrator's
+ * energy error grows steadily with simulated time, so the error of the trial is scaled up to the time the configuration
+ * will be used for. The cheapest candidate that stays within the accuracy target over that time is chosen; if none does,
+ * the most accurate one.
+ */
+public abstract class AutoTuner extends Gravity {
+
+   /**
+    * Candidate timesteps as multiples of the configured timestep
+    */
+   private static final double[] DT_FACTORS = {0.25, 0.5, 1, 2, 4, 8};
+
+   /**
+    * Candidate solvers, distributed gravity is not profiled as starting the workers dominates any short trial
+    */
+   private static final Solver[] SOLVERS = {Solver.DIRECT, Solver.PAIRWISE};
+
+   /**
+    * Result of profiling one candidate
+    */
+   public static class Configuration {
+
+      /**
+       * gravity solver
+       */
+      public final Solver solver;
+
+      /**
+       * timestep in s
+       */
+      public final double dtS;
+
+      /**
+       * relative change of total energy, scaled from the profiled time to the time the configuration is used for
+       */
+      public final double energyError;
+
+      /**
+       * runtime in ns per simulated second
+       */
+      public final double costNs;
+
+      private Configuration(Solver solver, double dtS, double energyError, double costNs) {
+         this.solver = solver;
+         this.dtS = dtS;
+         this.energyError = energyError;
+         this.costNs = costNs;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s gravity, dt = %.3fs (energy error %.2e, %.2ens per simulated s)", solver, dtS, energyError, costNs);
+      }
+   }
+
+   /**
+    * Profiles all candidates on copies of the given objects. The cost is bounded by the step budget: (2 + candidates) * steps
+    * steps of the given objects.
+    * @param objects objects to tune for (not modified)
+    * @param baseDtS configured timestep in s
+    * @param steps number of steps every candidate is run for
+    * @param intervalS simulated time in s the chosen configuration will be used for
+    * @param maxEnergyError accuracy target as relative energy error over intervalS
+    * @return chosen configuration
+    */
+   public static Configuration tune(List<PhysicsObject3D> objects, double baseDtS, int steps, double intervalS, double maxEnergyError) {
+      // Warm up the JIT so the first candidate is not measured in interpreted mode
+      trial(objects, Solver.DIRECT, baseDtS, steps, intervalS);
+      trial(objects, Solver.PAIRWISE, baseDtS, steps, intervalS);
+
+      Configuration best = null;
+      Configuration mostAccurate = null;
+      for (Solver solver : SOLVERS) {
+         for (double factor : DT_FACTORS) {
+            Configuration candidate = trial(objects, solver, baseDtS * factor, steps, intervalS);
+            if (candidate.energyError <= maxEnergyError && (best == null || candidate.costNs < best.costNs))
+               best = candidate;
+            if (mostAccurate == null || candidate.energyError < mostAccurate.energyError)
+               mostAccurate = candidate;
+         }
+      }
+      return best != null ? best : mostAccurate;
+   }
+
+   /**
+    * Runs a copy of the objects for the given number of steps with the given solver and timestep, without collisions or
+    * output. The energy error is scaled linearly from the simulated time to intervalS.
+    */
+   private static Configuration trial(List<PhysicsObject3D> objects, Solver solver, double dtS, int steps, double intervalS) {
+      List<PhysicsObject3D> copies = new ArrayList<>(objects.size());
+      objects.forEach((obj) -> copies.add(obj.clone()));
+      double initialEnergy = totalEnergy(copies);
+
+      long timerStart = System.nanoTime();
+      for (int step = 0; step < steps; step++)
+         Model.step(copies, solver, dtS);
+      long runtime = System.nanoTime() - timerStart;
+
+      double energyError = Math.abs((totalEnergy(copies) - initialEnergy) / initialEnergy) * intervalS / (steps * dtS);
+      return new Configuration(solver, dtS, energyError, runtime / (steps * dtS));
+   }
+}
@@ -0,0 +1,76 @@
+package physicssim;
+
+import java.util.List;
+
+/**
+ * Tracks the closest approach and largest distance of two objects.
+ */
+public class DistanceAnalyzer implements Analyzer {
+
+   private final String name;
+
+   private final String name2;
+
+   private double min = Double.POSITIVE_INFINITY;
+
+   private double max;
+
+   private double tMin;
+
+   private double tMax;
+
+   /**
+    * false until both objects existed at the same time
+    */
+   private boolean together;
+
+   /**
+    *
+    * @param name name of the first object
+    * @param name2 name of the second object
+    */
+   public DistanceAnalyzer(String name, String name2) {
+      this.name = name;
+      this.name2 = name2;
+   }
+
+   @Override
+   public void update(double t, List<PhysicsObject3D> objects) {
+      PhysicsObject3D obj = Analyzer.find(objects, name);
+      PhysicsObject3D obj2 = Analyzer.find(objects, name2);
+      if (obj == null || obj2 == null)
+         return;
+
+      together = true;
+      double distance = Vector3D.distance(obj.s, obj2.s);
+      if (distance < min) {
+         min = distance;
+         tMin = t;
+      }
+      if (distance > max) {
+         max = distance;
+         tMax = t;
+      }
+   }
+
+   /**
+    * @return closest approach so far in m, NaN if the objects never existed at the same time
+    */
+   public double getMin() {
+      return together ? min : Double.NaN;
+   }
+
+   /**
+    * @return largest distance so far in m, NaN if the objects never existed at the same time
+    */
+   public double getMax() {
+      return together ? max : Double.NaN;
+   }
+
+   @Override
+   public String report() {
+      if (!together)
+         return String.format("%s - %s: never existed at the same time", name, name2);
+      return String.format("%s - %s: min distance %6.3em at %.0fs, max distance %6.3em at %.0fs", name, name2, min, tMin, max, tMax);
+   }
+}
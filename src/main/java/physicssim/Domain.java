@@ -0,0 +1,147 @@
+package physicssim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Axis aligned region of space owned by a single worker process. Regions are created by orthogonal recursive bisection (ORB)
+ * so that every region holds roughly the same number of objects. Together the regions tile all of space: every position
+ * lies in exactly one region (lower bounds inclusive, upper bounds exclusive, outer bounds infinite).
+ */
+public class Domain {
+
+   /**
+    * Lower corner of the region in m
+    */
+   public final Vector3D min;
+
+   /**
+    * Upper corner of the region in m
+    */
+   public final Vector3D max;
+
+   /**
+    *
+    * @param min lower corner
+    * @param max upper corner
+    */
+   public Domain(Vector3D min, Vector3D max) {
+      this.min = min;
+      this.max = max;
+   }
+
+   /**
+    * Splits space into n regions holding the same number of the given objects each.
+    * @param objects objects to balance
+    * @param n number of regions to create
+    * @return n regions
+    */
+   public static List<Domain> orb(List<PhysicsObject3D> objects, int n) {
+      double[][] samples = new double[objects.size()][];
+      for (int i = 0; i < samples.length; i++) {
+         double[] s = objects.get(i).s.vector;
+         samples[i] = new double[]{s[0], s[1], s[2], 1};
+      }
+      return orb(samples, n);
+   }
+
+   /**
+    * Splits space into n regions of roughly equal weight by recursively cutting the longest side of the samples' bounding box
+    * at the position that balances the weight on both sides.
+    * @param samples sample positions with their weight (number of objects they stand for) as {x, y, z, weight}
+    * @param n number of regions to create
+    * @return n regions, some of which may hold no samples if there are fewer samples than regions
+    */
+   public static List<Domain> orb(double[][] samples, int n) {
+      if (n < 1)
+         throw new IllegalArgumentException("Cannot split space into less than one domain: " + n);
+      double inf = Double.POSITIVE_INFINITY;
+      List<Domain> domains = new ArrayList<>(n);
+      bisect(new ArrayList<>(Arrays.asList(samples)), n, new double[]{-inf, -inf, -inf}, new double[]{inf, inf, inf}, domains);
+      return domains;
+   }
+
+   private static void bisect(List<double[]> samples, int n, double[] min, double[] max, List<Domain> domains) {
+      if (n == 1) {
+         domains.add(new Domain(new Vector3D(min), new Vector3D(max)));
+         return;
+      }
+      int axis = longestAxis(samples);
+      samples.sort(Comparator.comparingDouble((sample) -> sample[axis]));
+
+      // Left side receives a share of the weight proportional to its share of the regions
+      int nLeft = n / 2;
+      double total = 0;
+      for (double[] sample : samples)
+         total += sample[3];
+      double target = total * nLeft / n;
+      int cut = 0;
+      double weight = 0;
+      while (cut < samples.size() && weight + samples.get(cut)[3] <= target)
+         weight += samples.get(cut++)[3];
+
+      // Cut halfway between the last sample on the left and the first one on the right
+      double position;
+      if (samples.isEmpty())
+         position = 0;
+      else if (cut == 0)
+         position = samples.get(0)[axis];
+      else if (cut == samples.size())
+         position = Math.nextUp(samples.get(cut - 1)[axis]);
+      else
+         position = (samples.get(cut - 1)[axis] + samples.get(cut)[axis]) / 2;
+      position = Math.max(Math.min(position, max[axis]), min[axis]);
+
+      double[] leftMax = max.clone();
+      leftMax[axis] = position;
+      double[] rightMin = min.clone();
+      rightMin[axis] = position;
+      bisect(new ArrayList<>(samples.subList(0, cut)), nLeft, min, leftMax, domains);
+      bisect(new ArrayList<>(samples.subList(cut, samples.size())), n - nLeft, rightMin, max, domains);
+   }
+
+   /**
+    * @return index (0 = x, 1 = y, 2 = z) of the longest side of the bounding box of the samples
+    */
+   private static int longestAxis(List<double[]> samples) {
+      double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+      double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+      for (double[] sample : samples) {
+         for (int i = 0; i < 3; i++) {
+            min[i] = Math.min(min[i], sample[i]);
+            max[i] = Math.max(max[i], sample[i]);
+         }
+      }
+      int axis = 0;
+      for (int i = 1; i < 3; i++)
+         if (max[i] - min[i] > max[axis] - min[axis])
+            axis = i;
+      return axis;
+   }
+
+   /**
+    * @param p position
+    * @return true if the position lies within this region
+    */
+   public boolean contains(Vector3D p) {
+      for (int i = 0; i < 3; i++)
+         if (p.vector[i] < min.vector[i] || p.vector[i] >= max.vector[i])
+            return false;
+      return true;
+   }
+
+   /**
+    * @param domains regions tiling space, as created by orb
+    * @param p position
+    * @return index of the region containing the position
+    */
+   public static int owner(List<Domain> domains, Vector3D p) {
+      for (int i = 0; i < domains.size(); i++)
+         if (domains.get(i).contains(p))
+            return i;
+      // Only reachable for NaN positions, keep such objects where they are counted
+      return domains.size() - 1;
+   }
+}
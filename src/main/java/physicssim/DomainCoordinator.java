@@ -0,0 +1,369 @@
+package physicssim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Distributes the simulation over several worker JVMs on localhost. Space is split into one domain per worker by orthogonal
+ * recursive bisection. Every worker keeps the objects of its domain, builds an Octree over them and calculates gravity,
+ * collisions and movement for them. Per step the workers only exchange their locally essential trees: objects close to the
+ * bounding box of another domain and cell summaries (mass and center of mass) for everything further away. The coordinator
+ * relays these exchanges, merges colliding objects and only collects the full state when it is asked for it.
+ * <p>
+ * As objects move, domains start to overlap and lose their balance. rebalance() computes new domains from a sample of
+ * positions and moves the objects that left their domain to their new owner.
+ * <p>
+ * A step calculates all accelerations before moving any object, like Gravity.Solver.PAIRWISE, and merges colliding objects
+ * in their moved state. With theta 0 and without collisions it matches a local PAIRWISE step up to rounding; Model.step with
+ * DIRECT moves objects one after another and merges them before they move, so it takes a different path.
+ */
+public class DomainCoordinator implements AutoCloseable {
+
+   /**
+    * Number of positions every worker sends to place the cuts when rebalancing
+    */
+   private static final int SAMPLES_PER_WORKER = 256;
+
+   private final Process[] workers;
+
+   private final Socket[] sockets;
+
+   private final DataInputStream[] in;
+
+   private final DataOutputStream[] out;
+
+   /**
+    * Id given to the next object handed to a worker
+    */
+   private long nextId;
+
+   /**
+    * Number of objects each worker owned during the last step
+    */
+   private final int[] owned;
+
+   /**
+    * Number of objects and cell summaries each worker received from the others during the last step
+    */
+   private final int[] importedObjects, importedSummaries;
+
+   /**
+    * Starts the worker JVMs and connects to them.
+    * @param nWorkers number of worker processes (and therefore domains)
+    * @throws IOException if a worker could not be started or connected to
+    */
+   public DomainCoordinator(int nWorkers) throws IOException {
+      workers = new Process[nWorkers];
+      sockets = new Socket[nWorkers];
+      in = new DataInputStream[nWorkers];
+      out = new DataOutputStream[nWorkers];
+      owned = new int[nWorkers];
+      importedObjects = new int[nWorkers];
+      importedSummaries = new int[nWorkers];
+
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      for (int i = 0; i < nWorkers; i++) {
+         workers[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), DomainWorker.class.getName())
+               .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+         for (Process worker : workers)
+            worker.destroy();
+      }));
+
+      for (int i = 0; i < nWorkers; i++) {
+         // Every worker listens on a port of its own choice and reports it on its first line
+         BufferedReader reader = new BufferedReader(new InputStreamReader(workers[i].getInputStream(), StandardCharsets.UTF_8));
+         String port = reader.readLine();
+         if (port == null)
+            throw new IOException("Worker " + i + " exited before it was ready.");
+         sockets[i] = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(port.trim()));
+         sockets[i].setTcpNoDelay(true);
+         in[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+         out[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+      }
+   }
+
+   /**
+    * Hands the objects to the workers, each to the owner of the domain it lies in. The workers work on copies, so the given
+    * objects are not modified.
+    * @param objects objects to simulate
+    * @throws IOException if communication with a worker fails
+    */
+   public void distribute(List<PhysicsObject3D> objects) throws IOException {
+      List<Domain> domains = Domain.orb(objects, workers.length);
+      List<List<PhysicsObject3D>> assigned = new ArrayList<>();
+      List<List<Long>> ids = new ArrayList<>();
+      for (int i = 0; i < workers.length; i++) {
+         assigned.add(new ArrayList<>());
+         ids.add(new ArrayList<>());
+      }
+      for (PhysicsObject3D obj : objects) {
+         int owner = Domain.owner(domains, obj.s);
+         assigned.get(owner).add(obj);
+         ids.get(owner).add(nextId++);
+      }
+      for (int i = 0; i < workers.length; i++)
+         assign(i, assigned.get(i), ids.get(i));
+   }
+
+   private void assign(int worker, List<PhysicsObject3D> objects, List<Long> ids) throws IOException {
+      out[worker].writeInt(DomainWorker.ASSIGN);
+      out[worker].writeInt(objects.size());
+      for (int i = 0; i < objects.size(); i++) {
+         out[worker].writeLong(ids.get(i));
+         DomainWorker.writeObject(out[worker], objects.get(i));
+      }
+      out[worker].flush();
+   }
+
+   /**
+    * Lets the workers perform a single iteration simulating dt time and merges colliding objects afterwards.
+    * @param dt timestep in s
+    * @param theta opening angle: a cell is summarised by its center of mass if its size divided by its distance is below this
+    * value, 0 sends every object (exact result)
+    * @param listener informed about collisions, may be null
+    * @throws IOException if communication with a worker fails
+    */
+   public void step(double dt, double theta, Model.CollisionListener listener) throws IOException {
+      int n = workers.length;
+      for (int i = 0; i < n; i++) {
+         out[i].writeInt(DomainWorker.STEP);
+         out[i].writeDouble(dt);
+         out[i].writeDouble(theta);
+         out[i].flush();
+      }
+
+      // Bounding boxes and largest radius of every domain
+      Vector3D[] min = new Vector3D[n];
+      Vector3D[] max = new Vector3D[n];
+      double[] maxR = new double[n];
+      for (int i = 0; i < n; i++) {
+         min[i] = DomainWorker.readVector(in[i]);
+         max[i] = DomainWorker.readVector(in[i]);
+         maxR[i] = in[i].readDouble();
+         owned[i] = in[i].readInt();
+      }
+      for (int i = 0; i < n; i++) {
+         out[i].writeInt(n - 1);
+         for (int j = 0; j < n; j++) {
+            if (j != i) {
+               DomainWorker.writeVector(out[i], min[j]);
+               DomainWorker.writeVector(out[i], max[j]);
+               out[i].writeDouble(maxR[j]);
+            }
+         }
+         out[i].flush();
+      }
+
+      // exports[i][j]: what worker i sends to worker j
+      byte[][][] exports = new byte[n][n][];
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < n; j++) {
+            if (j != i) {
+               exports[i][j] = new byte[in[i].readInt()];
+               in[i].readFully(exports[i][j]);
+            }
+         }
+      }
+      for (int j = 0; j < n; j++) {
+         out[j].writeInt(n - 1);
+         for (int i = 0; i < n; i++) {
+            if (i != j) {
+               out[j].writeInt(i);
+               out[j].writeInt(exports[i][j].length);
+               out[j].write(exports[i][j]);
+            }
+         }
+         out[j].flush();
+      }
+
+      // Collisions as {owner, id, owner, id}, ordered by the ids of the objects involved
+      TreeSet<long[]> collisions = new TreeSet<>(Comparator.comparingLong((long[] collision) -> collision[1])
+            .thenComparingLong((collision) -> collision[3]));
+      for (int i = 0; i < n; i++) {
+         importedObjects[i] = in[i].readInt();
+         importedSummaries[i] = in[i].readInt();
+         int nCollisions = in[i].readInt();
+         for (int k = 0; k < nCollisions; k++) {
+            long id = in[i].readLong();
+            int otherOwner = in[i].readInt();
+            long otherId = in[i].readLong();
+            if (otherOwner < 0)
+               otherOwner = i;
+            // both owners report collisions across domains, keep one of them
+            long[] collision = id < otherId ? new long[]{i, id, otherOwner, otherId} : new long[]{otherOwner, otherId, i, id};
+            collisions.add(collision);
+         }
+      }
+      mergeCollisions(collisions, listener);
+   }
+
+   /**
+    * Replaces every pair of colliding objects with their merged object, given to the owner of the first one. Objects that
+    * already collided in this step are skipped.
+    */
+   private void mergeCollisions(Iterable<long[]> collisions, Model.CollisionListener listener) throws IOException {
+      Set<Long> collided = new HashSet<>();
+      for (long[] collision : collisions) {
+         if (collided.contains(collision[1]) || collided.contains(collision[3]))
+            continue;
+         PhysicsObject3D obj = remove((int) collision[0], collision[1]);
+         PhysicsObject3D obj2 = remove((int) collision[2], collision[3]);
+         collided.add(collision[1]);
+         collided.add(collision[3]);
+
+         PhysicsObject3D collisionObj = Model.handleCollisions(obj, obj2);
+         assign((int) collision[0], List.of(collisionObj), List.of(nextId++));
+         if (listener != null)
+            listener.collided(obj, obj2, collisionObj);
+      }
+   }
+
+   private PhysicsObject3D remove(int worker, long id) throws IOException {
+      out[worker].writeInt(DomainWorker.REMOVE);
+      out[worker].writeInt(1);
+      out[worker].writeLong(id);
+      out[worker].flush();
+      if (!in[worker].readBoolean())
+         throw new IllegalStateException("Tried to remove an object that didn't exist but should have.");
+      return DomainWorker.readObject(in[worker]);
+   }
+
+   /**
+    * Splits space into new balanced domains based on a sample of the current positions and moves every object that left its
+    * domain to the worker of the domain it now lies in.
+    * @throws IOException if communication with a worker fails
+    */
+   public void rebalance() throws IOException {
+      int n = workers.length;
+      for (int i = 0; i < n; i++) {
+         out[i].writeInt(DomainWorker.SAMPLE);
+         out[i].writeInt(SAMPLES_PER_WORKER);
+         out[i].flush();
+      }
+      List<double[]> samples = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+         int count = in[i].readInt();
+         int nSamples = in[i].readInt();
+         for (int k = 0; k < nSamples; k++) {
+            Vector3D s = DomainWorker.readVector(in[i]);
+            // every sample stands for count / nSamples objects
+            samples.add(new double[]{s.vector[0], s.vector[1], s.vector[2], (double) count / nSamples});
+         }
+      }
+      List<Domain> domains = Domain.orb(samples.toArray(new double[0][]), n);
+
+      for (int i = 0; i < n; i++) {
+         out[i].writeInt(DomainWorker.MIGRATE);
+         out[i].writeInt(i);
+         out[i].writeInt(n);
+         for (Domain domain : domains) {
+            DomainWorker.writeVector(out[i], domain.min);
+            DomainWorker.writeVector(out[i], domain.max);
+         }
+         out[i].flush();
+      }
+      // migrations[i][j]: objects moving from worker i to worker j
+      byte[][][] migrations = new byte[n][n][];
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < n; j++) {
+            migrations[i][j] = new byte[in[i].readInt()];
+            in[i].readFully(migrations[i][j]);
+         }
+      }
+      for (int j = 0; j < n; j++) {
+         for (int i = 0; i < n; i++) {
+            if (i != j) {
+               out[j].writeInt(DomainWorker.ASSIGN);
+               out[j].write(migrations[i][j]);
+            }
+         }
+         out[j].flush();
+      }
+   }
+
+   /**
+    * Collects the current state of all objects from the workers.
+    * @return copies of all objects, in the order they were handed to the workers (merged objects last)
+    * @throws IOException if communication with a worker fails
+    */
+   public List<PhysicsObject3D> gather() throws IOException {
+      for (int i = 0; i < workers.length; i++) {
+         out[i].writeInt(DomainWorker.GATHER);
+         out[i].flush();
+      }
+      List<long[]> order = new ArrayList<>();
+      List<PhysicsObject3D> objects = new ArrayList<>();
+      for (int i = 0; i < workers.length; i++) {
+         int count = in[i].readInt();
+         for (int k = 0; k < count; k++) {
+            order.add(new long[]{in[i].readLong(), objects.size()});
+            objects.add(DomainWorker.readObject(in[i]));
+         }
+      }
+      order.sort(Comparator.comparingLong((entry) -> entry[0]));
+      List<PhysicsObject3D> sorted = new ArrayList<>(objects.size());
+      for (long[] entry : order)
+         sorted.add(objects.get((int) entry[1]));
+      return sorted;
+   }
+
+   /**
+    * @return number of objects every worker owned during the last step
+    */
+   public int[] getOwnedObjects() {
+      return owned.clone();
+   }
+
+   /**
+    * @return number of objects (near its boundary) every worker received from the other domains during the last step
+    */
+   public int[] getImportedObjects() {
+      return importedObjects.clone();
+   }
+
+   /**
+    * @return number of cell summaries every worker received from the other domains during the last step
+    */
+   public int[] getImportedSummaries() {
+      return importedSummaries.clone();
+   }
+
+   /**
+    * Stops all workers and waits for them to exit.
+    */
+   @Override
+   public void close() throws IOException {
+      for (int i = 0; i < workers.length; i++) {
+         if (out[i] != null) {
+            out[i].writeInt(DomainWorker.EXIT);
+            out[i].flush();
+            sockets[i].close();
+         }
+      }
+      for (Process worker : workers) {
+         try {
+            worker.waitFor();
+         } catch (InterruptedException e) {
+            worker.destroy();
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+}
@@ -0,0 +1,321 @@
+package physicssim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Worker process owning the objects of a single domain. Started by DomainCoordinator, one JVM per domain. The worker keeps
+ * the full state of its objects between steps and integrates them itself; other domains only ever see the part of its
+ * Octree they need (objects near their boundary and summaries of distant cells).
+ * <p>
+ * On start the worker listens on a free port of localhost and prints the port as first line to stdout. The coordinator then
+ * sends commands, every command starts with its number:
+ * <ul>
+ * <li>ASSIGN: number of objects followed by their id and state. The worker takes ownership of them.</li>
+ * <li>STEP dt theta: the worker answers with the bounding box (min, max), largest radius and number of its objects. It then
+ * receives the boxes of all other domains and answers with one export per box (length in bytes, number of objects with id,
+ * r, m, x, y, z, number of summaries with m, x, y, z). Then it receives the exports of all other domains (origin, length,
+ * export), calculates gravity, detects collisions and moves its objects. It answers with the number of objects and summaries
+ * it received and the collisions it found as its object id, owner of the other object (-1 for itself) and its id. Colliding
+ * objects are left in place, the coordinator merges them.</li>
+ * <li>REMOVE: number of ids followed by the ids. The worker answers with a flag and the state of every object it gave up.</li>
+ * <li>GATHER: the worker answers with number of objects followed by id and state of all of them.</li>
+ * <li>SAMPLE n: the worker answers with the number of its objects and up to n of their positions.</li>
+ * <li>MIGRATE: index of this worker, number of domains and their min and max. The worker answers with one ASSIGN message per
+ * domain (length in bytes, message) holding the objects that moved there and gives them up.</li>
+ * <li>EXIT ends the worker.</li>
+ * </ul>
+ */
+public abstract class DomainWorker extends Model {
+
+   static final int ASSIGN = 1;
+   static final int STEP = 2;
+   static final int REMOVE = 3;
+   static final int GATHER = 4;
+   static final int SAMPLE = 5;
+   static final int MIGRATE = 6;
+   static final int EXIT = -1;
+
+   /**
+    * Objects owned by this worker by id
+    */
+   private static final Map<Long, PhysicsObject3D> owned = new LinkedHashMap<>();
+
+   /**
+    * @param args none
+    * @throws IOException if the connection to the coordinator fails
+    */
+   public static void main(String[] args) throws IOException {
+      try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+         // Tell the coordinator where to connect
+         System.out.println(server.getLocalPort());
+         System.out.flush();
+
+         try (Socket socket = server.accept()) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            int command;
+            while ((command = in.readInt()) != EXIT) {
+               switch (command) {
+                  case ASSIGN:
+                     assign(in);
+                     break;
+                  case STEP:
+                     step(in, out);
+                     break;
+                  case REMOVE:
+                     remove(in, out);
+                     break;
+                  case GATHER:
+                     out.writeInt(owned.size());
+                     for (Map.Entry<Long, PhysicsObject3D> entry : owned.entrySet()) {
+                        out.writeLong(entry.getKey());
+                        writeObject(out, entry.getValue());
+                     }
+                     break;
+                  case SAMPLE:
+                     sample(in, out);
+                     break;
+                  case MIGRATE:
+                     migrate(in, out);
+                     break;
+                  default:
+                     throw new IOException("Unknown command " + command);
+               }
+               out.flush();
+            }
+         }
+      }
+   }
+
+   private static void assign(DataInputStream in) throws IOException {
+      int n = in.readInt();
+      for (int i = 0; i < n; i++)
+         owned.put(in.readLong(), readObject(in));
+   }
+
+   private static void step(DataInputStream in, DataOutputStream out) throws IOException {
+      double dt = in.readDouble();
+      double theta = in.readDouble();
+      List<PhysicsObject3D> objects = new ArrayList<>(owned.values());
+      long[] ids = new long[objects.size()];
+      int k = 0;
+      for (long id : owned.keySet())
+         ids[k++] = id;
+      Octree tree = new Octree(objects);
+
+      // Bounding box, so the others know what to send
+      Vector3D min = new Vector3D(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+      Vector3D max = new Vector3D(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
+      double maxR = 0;
+      for (PhysicsObject3D obj : objects) {
+         for (int i = 0; i < 3; i++) {
+            min.vector[i] = Math.min(min.vector[i], obj.s.vector[i]);
+            max.vector[i] = Math.max(max.vector[i], obj.s.vector[i]);
+         }
+         maxR = Math.max(maxR, obj.r);
+      }
+      writeVector(out, min);
+      writeVector(out, max);
+      out.writeDouble(maxR);
+      out.writeInt(objects.size());
+      out.flush();
+
+      // Locally essential part of the tree for every other domain
+      int nOthers = in.readInt();
+      for (int j = 0; j < nOthers; j++) {
+         Vector3D otherMin = readVector(in);
+         Vector3D otherMax = readVector(in);
+         double otherMaxR = in.readDouble();
+         List<Integer> indices = new ArrayList<>();
+         List<PhysicsObject3D> summaries = new ArrayList<>();
+         tree.export(otherMin, otherMax, otherMaxR, theta, indices, summaries);
+
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream export = new DataOutputStream(bytes);
+         export.writeInt(indices.size());
+         for (int index : indices) {
+            PhysicsObject3D obj = objects.get(index);
+            export.writeLong(ids[index]);
+            export.writeDouble(obj.r);
+            export.writeDouble(obj.m);
+            writeVector(export, obj.s);
+         }
+         export.writeInt(summaries.size());
+         for (PhysicsObject3D summary : summaries) {
+            export.writeDouble(summary.m);
+            writeVector(export, summary.s);
+         }
+         export.flush();
+         out.writeInt(bytes.size());
+         bytes.writeTo(out);
+      }
+      out.flush();
+
+      // Exports of the other domains: objects close to this domain and summaries of distant cells
+      List<PhysicsObject3D> sources = new ArrayList<>();
+      List<PhysicsObject3D> neighbours = new ArrayList<>();
+      List<long[]> neighbourIds = new ArrayList<>();
+      int nOrigins = in.readInt();
+      for (int j = 0; j < nOrigins; j++) {
+         int origin = in.readInt();
+         in.readInt(); // length in bytes
+         int nObjects = in.readInt();
+         for (int i = 0; i < nObjects; i++) {
+            long id = in.readLong();
+            double r = in.readDouble();
+            double m = in.readDouble();
+            PhysicsObject3D obj = new PhysicsObject3D("", r, m, readVector(in).vector);
+            neighbours.add(obj);
+            neighbourIds.add(new long[]{origin, id});
+            sources.add(obj);
+         }
+         int nSummaries = in.readInt();
+         for (int i = 0; i < nSummaries; i++) {
+            double m = in.readDouble();
+            sources.add(new PhysicsObject3D("", 0, m, readVector(in).vector));
+         }
+      }
+
+      for (PhysicsObject3D obj : objects) {
+         obj.a.vector = new double[3];
+         tree.accelerate(obj, theta);
+         apply(obj, sources);
+      }
+
+      // Collisions with own objects and neighbours, merged by the coordinator as they may span domains
+      List<long[]> collisions = new ArrayList<>();
+      for (int i = 0; i < objects.size(); i++) {
+         PhysicsObject3D obj = objects.get(i);
+         for (int j = i + 1; j < objects.size(); j++)
+            if (primitiveCollisionCheck(obj, objects.get(j)))
+               collisions.add(new long[]{ids[i], -1, ids[j]});
+         for (int j = 0; j < neighbours.size(); j++)
+            if (primitiveCollisionCheck(obj, neighbours.get(j)))
+               collisions.add(new long[]{ids[i], neighbourIds.get(j)[0], neighbourIds.get(j)[1]});
+      }
+
+      // update position and velocity in space for dt
+      for (PhysicsObject3D obj : objects) {
+         for (int i = 0; i < 3; i++) {
+            obj.s.vector[i] += obj.v.vector[i] * dt;
+            obj.v.vector[i] += obj.a.vector[i] * dt;
+         }
+      }
+
+      out.writeInt(neighbours.size());
+      out.writeInt(sources.size() - neighbours.size());
+      out.writeInt(collisions.size());
+      for (long[] collision : collisions) {
+         out.writeLong(collision[0]);
+         out.writeInt((int) collision[1]);
+         out.writeLong(collision[2]);
+      }
+   }
+
+   private static void remove(DataInputStream in, DataOutputStream out) throws IOException {
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+         PhysicsObject3D obj = owned.remove(in.readLong());
+         out.writeBoolean(obj != null);
+         if (obj != null)
+            writeObject(out, obj);
+      }
+   }
+
+   private static void sample(DataInputStream in, DataOutputStream out) throws IOException {
+      int n = Math.min(in.readInt(), owned.size());
+      out.writeInt(owned.size());
+      out.writeInt(n);
+      // every (size / n)th object
+      int i = 0;
+      int written = 0;
+      for (PhysicsObject3D obj : owned.values()) {
+         if (written < n && (long) i * n / owned.size() == written) {
+            writeVector(out, obj.s);
+            written++;
+         }
+         i++;
+      }
+   }
+
+   private static void migrate(DataInputStream in, DataOutputStream out) throws IOException {
+      int self = in.readInt();
+      List<Domain> domains = new ArrayList<>();
+      int n = in.readInt();
+      for (int i = 0; i < n; i++)
+         domains.add(new Domain(readVector(in), readVector(in)));
+
+      List<List<Map.Entry<Long, PhysicsObject3D>>> leaving = new ArrayList<>();
+      for (int i = 0; i < n; i++)
+         leaving.add(new ArrayList<>());
+      for (Iterator<Map.Entry<Long, PhysicsObject3D>> it = owned.entrySet().iterator(); it.hasNext();) {
+         Map.Entry<Long, PhysicsObject3D> entry = it.next();
+         int owner = Domain.owner(domains, entry.getValue().s);
+         if (owner != self) {
+            leaving.get(owner).add(entry);
+            it.remove();
+         }
+      }
+
+      for (List<Map.Entry<Long, PhysicsObject3D>> objects : leaving) {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream message = new DataOutputStream(bytes);
+         message.writeInt(objects.size());
+         for (Map.Entry<Long, PhysicsObject3D> entry : objects) {
+            message.writeLong(entry.getKey());
+            writeObject(message, entry.getValue());
+         }
+         message.flush();
+         out.writeInt(bytes.size());
+         bytes.writeTo(out);
+      }
+   }
+
+   /**
+    * Writes name, r, m, s, v and a of an object
+    */
+   static void writeObject(DataOutputStream out, PhysicsObject3D obj) throws IOException {
+      out.writeUTF(obj.name);
+      out.writeDouble(obj.r);
+      out.writeDouble(obj.m);
+      writeVector(out, obj.s);
+      writeVector(out, obj.v);
+      writeVector(out, obj.a);
+   }
+
+   /**
+    * Reads an object written by writeObject
+    */
+   static PhysicsObject3D readObject(DataInputStream in) throws IOException {
+      String name = in.readUTF();
+      double r = in.readDouble();
+      double m = in.readDouble();
+      PhysicsObject3D obj = new PhysicsObject3D(name, r, m, readVector(in).vector, readVector(in).vector);
+      obj.a = readVector(in);
+      return obj;
+   }
+
+   static void writeVector(DataOutputStream out, Vector3D v) throws IOException {
+      for (int i = 0; i < 3; i++)
+         out.writeDouble(v.vector[i]);
+   }
+
+   static Vector3D readVector(DataInputStream in) throws IOException {
+      return new Vector3D(in.readDouble(), in.readDouble(), in.readDouble());
+   }
+}
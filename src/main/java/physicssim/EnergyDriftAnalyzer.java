@@ -0,0 +1,44 @@
+package physicssim;
+
+import java.util.List;
+
+/**
+ * Tracks the relative change of the total energy of the simulation compared to the first update. Collisions are inelastic,
+ * so they show up as drift as well.
+ */
+public class EnergyDriftAnalyzer implements Analyzer {
+
+   private double initialEnergy = Double.NaN;
+
+   private double drift;
+
+   private double maxDrift;
+
+   @Override
+   public void update(double t, List<PhysicsObject3D> objects) {
+      double energy = Gravity.totalEnergy(objects);
+      if (Double.isNaN(initialEnergy))
+         initialEnergy = energy;
+      drift = (energy - initialEnergy) / Math.abs(initialEnergy);
+      maxDrift = Math.max(maxDrift, Math.abs(drift));
+   }
+
+   /**
+    * @return current relative energy drift
+    */
+   public double getDrift() {
+      return drift;
+   }
+
+   /**
+    * @return largest absolute relative energy drift so far
+    */
+   public double getMaxDrift() {
+      return maxDrift;
+   }
+
+   @Override
+   public String report() {
+      return String.format("Energy: E0=%6.3eJ, drift %+6.3e (max %6.3e)", initialEnergy, drift, maxDrift);
+   }
+}
@@ -0,0 +1,484 @@
+package physicssim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk store of object trajectories that allows querying position and velocity of an object at any time without
+ * rerunning the simulation. Every sample (time, position and velocity) of an object is stored once; queries interpolate
+ * between two consecutive samples with a cubic Hermite segment. Samples are written in blocks per object, so a query reads
+ * a single block found by binary search over the index. Recently used blocks are kept in an LRU cache.
+ * <p>
+ * File format: magic number, then blocks, each the object name (modified UTF-8 as written by DataOutput.writeUTF), whether
+ * it continues the previous block of the object, the number of samples and t, s, v of every sample as doubles. On close
+ * the index is appended as footer: number of objects, then per object its name, number of blocks and first time, last
+ * time, offset of the samples, number of samples and continuation flag of every block. The file ends with the offset of
+ * the footer and the magic number. Files without a valid footer (e.g. after a crash) are indexed by reading all block
+ * headers. Opening a file removes its footer until it is closed again, so new blocks never leave a stale one behind.
+ * Instances are not thread safe.
+ */
+public class Ephemeris implements AutoCloseable {
+
+   private static final int MAGIC = 0x45504832;
+
+   /**
+    * Number of doubles stored per sample: t and two 3D vectors
+    */
+   private static final int SAMPLE_DOUBLES = 7;
+
+   /**
+    * Number of samples of an object collected in memory before they are written as one block
+    */
+   private static final int BLOCK_SAMPLES = 128;
+
+   /**
+    * Default number of blocks kept in memory
+    */
+   public static final int DEFAULT_CACHE_BLOCKS = 64;
+
+   private final RandomAccessFile file;
+
+   /**
+    * Blocks of every object, sorted by time
+    */
+   private final Map<String, Index> index = new HashMap<>();
+
+   /**
+    * Samples not yet written of every object that is still part of the simulation
+    */
+   private final Map<String, Trajectory> trajectories = new HashMap<>();
+
+   /**
+    * Objects of an opened file whose trajectory the next recorded sample continues
+    */
+   private final Set<String> resumable = new HashSet<>();
+
+   /**
+    * Least recently used blocks by file offset
+    */
+   private final LinkedHashMap<Long, double[]> cache;
+
+   /**
+    * Offset at which the next block is written
+    */
+   private long end;
+
+   /**
+    * Creates an empty ephemeris, overwriting the given file.
+    * @param path file to store the samples in
+    * @param cacheBlocks number of blocks kept in memory for queries
+    * @throws IOException if the file cannot be created
+    */
+   public Ephemeris(File path, int cacheBlocks) throws IOException {
+      this(path, cacheBlocks, true);
+   }
+
+   private Ephemeris(File path, int cacheBlocks, boolean truncate) throws IOException {
+      if (path.getParentFile() != null)
+         path.getParentFile().mkdirs();
+      file = new RandomAccessFile(path, "rw");
+      if (truncate) {
+         file.setLength(0);
+         file.writeInt(MAGIC);
+         end = file.getFilePointer();
+      }
+      cache = new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+            return size() > cacheBlocks;
+         }
+      };
+   }
+
+   /**
+    * Opens an existing ephemeris file for queries (and further recording). Only the index is read. Samples recorded
+    * afterwards continue the trajectories of the objects with the same name.
+    * @param path previously written ephemeris file
+    * @param cacheBlocks number of blocks kept in memory for queries
+    * @return ephemeris with all blocks of the file indexed
+    * @throws IOException if the file cannot be read or is no ephemeris
+    */
+   public static Ephemeris open(File path, int cacheBlocks) throws IOException {
+      Ephemeris ephemeris = new Ephemeris(path, cacheBlocks, false);
+      RandomAccessFile file = ephemeris.file;
+      if (file.length() < Integer.BYTES || file.readInt() != MAGIC) {
+         file.close();
+         throw new IOException(path + " is no ephemeris file");
+      }
+
+      if (!ephemeris.readFooter()) {
+         // Not closed properly, recover the index from the block headers
+         ephemeris.index.clear();
+         long offset = Integer.BYTES;
+         try {
+            while (offset < file.length()) {
+               file.seek(offset);
+               String name = file.readUTF();
+               boolean continued = file.readBoolean();
+               int count = file.readInt();
+               long data = file.getFilePointer();
+               long next = data + (long) count * SAMPLE_DOUBLES * Double.BYTES;
+               if (count < 1 || next > file.length())
+                  break;
+               double tFirst = file.readDouble();
+               file.seek(next - SAMPLE_DOUBLES * Double.BYTES);
+               double tLast = file.readDouble();
+               ephemeris.index.computeIfAbsent(name, (n) -> new Index()).add(tFirst, tLast, data, count, continued);
+               offset = next;
+            }
+         } catch (IOException e) {
+            // incomplete last block, ignored
+         }
+         ephemeris.end = offset;
+      }
+      // New blocks are appended where the footer (or an incomplete block) was
+      file.setLength(ephemeris.end);
+      ephemeris.resumable.addAll(ephemeris.index.keySet());
+      return ephemeris;
+   }
+
+   /**
+    * Reads the index from the footer of the file
+    * @return false if the file has no footer or it does not match the file
+    */
+   private boolean readFooter() throws IOException {
+      long trailer = file.length() - Integer.BYTES - Long.BYTES;
+      if (trailer < Integer.BYTES)
+         return false;
+      file.seek(trailer);
+      long footer = file.readLong();
+      if (file.readInt() != MAGIC || footer < Integer.BYTES || footer >= trailer)
+         return false;
+
+      try {
+         file.seek(footer);
+         int nObjects = file.readInt();
+         for (int i = 0; i < nObjects; i++) {
+            Index objIndex = new Index();
+            index.put(file.readUTF(), objIndex);
+            int nBlocks = file.readInt();
+            for (int b = 0; b < nBlocks; b++) {
+               double tFirst = file.readDouble();
+               double tLast = file.readDouble();
+               long offset = file.readLong();
+               int count = file.readInt();
+               if (count < 1 || offset < Integer.BYTES || offset + (long) count * SAMPLE_DOUBLES * Double.BYTES > footer)
+                  return false;
+               objIndex.add(tFirst, tLast, offset, count, file.readBoolean());
+            }
+         }
+      } catch (IOException e) {
+         // e.g. a stale trailer pointing into block data
+         return false;
+      }
+      if (file.getFilePointer() != trailer)
+         return false;
+      end = footer;
+      return true;
+   }
+
+   /**
+    * Samples the current state of all objects. Objects seen for the first time start a new trajectory, objects no longer
+    * present (e.g. merged by a collision) end theirs.
+    * @param t current simulation time in s, has to increase with every call
+    * @param objects all objects in the simulation
+    * @throws IOException if writing to the file fails
+    */
+   public void record(double t, List<PhysicsObject3D> objects) throws IOException {
+      Set<String> present = new HashSet<>();
+      for (PhysicsObject3D obj : objects) {
+         present.add(obj.name);
+         Trajectory trajectory = trajectories.computeIfAbsent(obj.name, this::resume);
+         if (trajectory.t >= t)
+            continue;
+         trajectory.add(t, obj.s.vector, obj.v.vector);
+         if (trajectory.count == BLOCK_SAMPLES)
+            write(trajectory);
+      }
+
+      for (Iterator<Trajectory> it = trajectories.values().iterator(); it.hasNext();) {
+         Trajectory trajectory = it.next();
+         if (!present.contains(trajectory.name)) {
+            write(trajectory);
+            it.remove();
+         }
+      }
+   }
+
+   /**
+    * Starts collecting samples of an object, continuing its trajectory if it was recorded before the file was opened
+    */
+   private Trajectory resume(String name) {
+      Trajectory trajectory = new Trajectory(name);
+      if (resumable.remove(name)) {
+         Index objIndex = index.get(name);
+         trajectory.t = objIndex.tLast[objIndex.size - 1];
+         trajectory.continued = true;
+      }
+      return trajectory;
+   }
+
+   /**
+    * Writes the collected samples of a trajectory as a block
+    */
+   private void write(Trajectory trajectory) throws IOException {
+      if (trajectory.count == 0)
+         return;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(trajectory.name);
+      out.writeBoolean(trajectory.continued);
+      out.writeInt(trajectory.count);
+      long data = end + out.size();
+      for (int i = 0; i < trajectory.count * SAMPLE_DOUBLES; i++)
+         out.writeDouble(trajectory.samples[i]);
+
+      file.seek(end);
+      file.write(bytes.toByteArray());
+      end = file.getFilePointer();
+      index.computeIfAbsent(trajectory.name, (n) -> new Index()).add(trajectory.samples[0],
+            trajectory.samples[(trajectory.count - 1) * SAMPLE_DOUBLES], data, trajectory.count, trajectory.continued);
+
+      // the next block starts with its own first sample, the segment in between spans both blocks
+      trajectory.continued = true;
+      trajectory.count = 0;
+   }
+
+   /**
+    * Interpolated position of an object at the given time
+    * @param name name of the object
+    * @param t time in s
+    * @return position in m
+    * @throws IOException if reading from the file fails
+    */
+   public Vector3D position(String name, double t) throws IOException {
+      return segment(name, t).position(t);
+   }
+
+   /**
+    * Interpolated velocity of an object at the given time
+    * @param name name of the object
+    * @param t time in s
+    * @return velocity in m/s
+    * @throws IOException if reading from the file fails
+    */
+   public Vector3D velocity(String name, double t) throws IOException {
+      return segment(name, t).velocity(t);
+   }
+
+   /**
+    * Finds the two samples around time t in O(log samples)
+    */
+   private Segment segment(String name, double t) throws IOException {
+      // samples still in memory become visible to queries
+      Trajectory trajectory = trajectories.get(name);
+      if (trajectory != null)
+         write(trajectory);
+
+      Index objIndex = index.get(name);
+      if (objIndex == null)
+         throw new IllegalArgumentException("No trajectory recorded for object " + name);
+      int b = Arrays.binarySearch(objIndex.tFirst, 0, objIndex.size, t);
+      // not an exact match: take the block starting before t
+      if (b < 0)
+         b = -b - 2;
+      if (b < 0)
+         throw new IllegalArgumentException(String.format("%s has no recorded state at %.3fs", name, t));
+
+      double[] samples = block(objIndex, b);
+      int count = objIndex.counts[b];
+      if (t <= objIndex.tLast[b]) {
+         // last sample at or before t
+         int low = 0;
+         int high = count - 1;
+         while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (samples[mid * SAMPLE_DOUBLES] <= t)
+               low = mid;
+            else
+               high = mid - 1;
+         }
+         if (low < count - 1)
+            return new Segment(samples, low, samples, low + 1);
+         if (low > 0)
+            return new Segment(samples, low - 1, samples, low);
+         if (b > 0 && objIndex.continued[b])
+            return new Segment(block(objIndex, b - 1), objIndex.counts[b - 1] - 1, samples, 0);
+      } else if (b + 1 < objIndex.size && objIndex.continued[b + 1])
+         return new Segment(samples, count - 1, block(objIndex, b + 1), 0);
+      throw new IllegalArgumentException(String.format("%s has no recorded state at %.3fs", name, t));
+   }
+
+   /**
+    * Samples of a block, read from the cache or the file
+    */
+   private double[] block(Index objIndex, int b) throws IOException {
+      long offset = objIndex.offsets[b];
+      double[] samples = cache.get(offset);
+      if (samples == null) {
+         byte[] bytes = new byte[objIndex.counts[b] * SAMPLE_DOUBLES * Double.BYTES];
+         file.seek(offset);
+         file.readFully(bytes);
+         ByteBuffer buffer = ByteBuffer.wrap(bytes);
+         samples = new double[objIndex.counts[b] * SAMPLE_DOUBLES];
+         for (int i = 0; i < samples.length; i++)
+            samples[i] = buffer.getDouble();
+         cache.put(offset, samples);
+      }
+      return samples;
+   }
+
+   /**
+    * Writes the remaining samples and the index, then closes the file.
+    */
+   @Override
+   public void close() throws IOException {
+      for (Trajectory trajectory : trajectories.values())
+         write(trajectory);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(index.size());
+      for (Map.Entry<String, Index> entry : index.entrySet()) {
+         Index objIndex = entry.getValue();
+         out.writeUTF(entry.getKey());
+         out.writeInt(objIndex.size);
+         for (int b = 0; b < objIndex.size; b++) {
+            out.writeDouble(objIndex.tFirst[b]);
+            out.writeDouble(objIndex.tLast[b]);
+            out.writeLong(objIndex.offsets[b]);
+            out.writeInt(objIndex.counts[b]);
+            out.writeBoolean(objIndex.continued[b]);
+         }
+      }
+      out.writeLong(end);
+      out.writeInt(MAGIC);
+
+      file.seek(end);
+      file.write(bytes.toByteArray());
+      file.setLength(file.getFilePointer());
+      file.close();
+   }
+
+   /**
+    * Samples of an object that have not been written yet
+    */
+   private static class Trajectory {
+      final String name;
+      final double[] samples = new double[BLOCK_SAMPLES * SAMPLE_DOUBLES];
+      int count;
+
+      /**
+       * time of the last sample
+       */
+      double t = Double.NEGATIVE_INFINITY;
+
+      /**
+       * whether an earlier block of this trajectory was written
+       */
+      boolean continued;
+
+      Trajectory(String name) {
+         this.name = name;
+      }
+
+      void add(double t, double[] s, double[] v) {
+         int i = count * SAMPLE_DOUBLES;
+         samples[i] = t;
+         System.arraycopy(s, 0, samples, i + 1, 3);
+         System.arraycopy(v, 0, samples, i + 4, 3);
+         count++;
+         this.t = t;
+      }
+   }
+
+   /**
+    * Growable list of the blocks of a single object, sorted by time
+    */
+   private static class Index {
+      double[] tFirst = new double[16];
+      double[] tLast = new double[16];
+      long[] offsets = new long[16];
+      int[] counts = new int[16];
+      boolean[] continued = new boolean[16];
+      int size;
+
+      void add(double first, double last, long offset, int count, boolean continues) {
+         if (size == tFirst.length) {
+            tFirst = Arrays.copyOf(tFirst, size * 2);
+            tLast = Arrays.copyOf(tLast, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            continued = Arrays.copyOf(continued, size * 2);
+         }
+         tFirst[size] = first;
+         tLast[size] = last;
+         offsets[size] = offset;
+         counts[size] = count;
+         continued[size] = continues;
+         size++;
+      }
+   }
+
+   /**
+    * Cubic Hermite interpolation between two samples
+    */
+   private static class Segment {
+      /**
+       * t0, t1, s0[3], v0[3], s1[3], v1[3]
+       */
+      final double[] values = new double[14];
+
+      /**
+       * @param samples0 block holding the first sample
+       * @param i0 index of the first sample
+       * @param samples1 block holding the second sample
+       * @param i1 index of the second sample
+       */
+      Segment(double[] samples0, int i0, double[] samples1, int i1) {
+         values[0] = samples0[i0 * SAMPLE_DOUBLES];
+         values[1] = samples1[i1 * SAMPLE_DOUBLES];
+         System.arraycopy(samples0, i0 * SAMPLE_DOUBLES + 1, values, 2, 6);
+         System.arraycopy(samples1, i1 * SAMPLE_DOUBLES + 1, values, 8, 6);
+      }
+
+      Vector3D position(double t) {
+         double h = values[1] - values[0];
+         double u = (t - values[0]) / h;
+         double u2 = u * u;
+         double u3 = u2 * u;
+         return combine(2 * u3 - 3 * u2 + 1, (u3 - 2 * u2 + u) * h, -2 * u3 + 3 * u2, (u3 - u2) * h);
+      }
+
+      Vector3D velocity(double t) {
+         double h = values[1] - values[0];
+         double u = (t - values[0]) / h;
+         double u2 = u * u;
+         return combine((6 * u2 - 6 * u) / h, 3 * u2 - 4 * u + 1, (-6 * u2 + 6 * u) / h, 3 * u2 - 2 * u);
+      }
+
+      /**
+       * Weighted sum of s0, v0, s1 and v1
+       */
+      private Vector3D combine(double ws0, double wv0, double ws1, double wv1) {
+         Vector3D result = new Vector3D();
+         for (int i = 0; i < 3; i++)
+            result.vector[i] = ws0 * values[2 + i] + wv0 * values[5 + i] + ws1 * values[8 + i] + wv1 * values[11 + i];
+         return result;
+      }
+   }
+}
@@ -0,0 +1,107 @@
+package physicssim;
+
+import java.util.List;
+
+/**
+ * Gravitational force calculations shared by the simulator and its worker processes.
+ */
+public abstract class Gravity extends Util {
+
+   /**
+    * Available ways of calculating gravity
+    */
+   public enum Solver {
+      /**
+       * Every object sums up the pull of all other objects while the objects are updated one after another
+       */
+      DIRECT,
+      /**
+       * Every pair of objects is evaluated once and both objects receive their share (Newton's third law), then all
+       * objects are updated
+       */
+      PAIRWISE
+   }
+
+   /**
+    * Adds gravitational forces acting on this object to its a
+    * @param obj object that is being gravitationally pulled by other object's mass
+    * @param sources objects whose mass pulls on obj (obj itself may be contained and is skipped)
+    */
+   protected static void apply(PhysicsObject3D obj, Iterable<PhysicsObject3D> sources) {
+      // Gravity Super Position Vector = total gravitational acceleration for this object
+      if (obj.m > 0) {
+         double[] gspV = new double[3];
+         sources.forEach((obj2) -> {
+            // If not same object and obj2 not massless
+            if (obj != obj2 && obj2.m != 0d) {
+               double ED = Vector3D.distance(obj.s, obj2.s);
+               double[] dirV = Vector3D.normDirV(obj.s, obj2.s).vector.clone();
+               // Force in Newtons
+               double forceInN = (G_CONST * obj.m * obj2.m) / Math.pow(ED, 2);
+               // F = m * a <=> a = F / m
+               double acc = forceInN / obj.m;
+               for (int i = 0; i < 3; i++) {
+                  gspV[i] += dirV[i] * acc;
+               }
+            }
+         });
+         for (int i = 0; i < 3; i++)
+            obj.a.vector[i] += gspV[i];
+      }
+   }
+
+   /**
+    * Replaces the acceleration of all objects with the gravitational acceleration caused by all other objects. Evaluates
+    * every pair only once.
+    * @param objects all objects in the simulation
+    */
+   protected static void applyPairwise(List<PhysicsObject3D> objects) {
+      int n = objects.size();
+      for (PhysicsObject3D obj : objects)
+         obj.a.vector = new double[3];
+
+      for (int i = 0; i < n; i++) {
+         PhysicsObject3D obj = objects.get(i);
+         double[] s = obj.s.vector;
+         double[] a = obj.a.vector;
+         for (int j = i + 1; j < n; j++) {
+            PhysicsObject3D obj2 = objects.get(j);
+            double dx = obj2.s.vector[0] - s[0];
+            double dy = obj2.s.vector[1] - s[1];
+            double dz = obj2.s.vector[2] - s[2];
+            double ED2 = dx * dx + dy * dy + dz * dz;
+            // G / |d|^3, multiplied with the other mass and d this gives the acceleration
+            double g = G_CONST / (ED2 * Math.sqrt(ED2));
+            // massless objects are neither pulled nor pull
+            if (obj.m > 0 && obj2.m != 0d) {
+               a[0] += dx * g * obj2.m;
+               a[1] += dy * g * obj2.m;
+               a[2] += dz * g * obj2.m;
+            }
+            if (obj2.m > 0 && obj.m != 0d) {
+               obj2.a.vector[0] -= dx * g * obj.m;
+               obj2.a.vector[1] -= dy * g * obj.m;
+               obj2.a.vector[2] -= dz * g * obj.m;
+            }
+         }
+      }
+   }
+
+   /**
+    * Total mechanical energy (kinetic and gravitational potential) of the given objects
+    * @param objects objects to sum up
+    * @return energy in J
+    */
+   public static double totalEnergy(List<PhysicsObject3D> objects) {
+      double energy = 0;
+      for (int i = 0; i < objects.size(); i++) {
+         PhysicsObject3D obj = objects.get(i);
+         energy += obj.getKineticEnergy();
+         for (int j = i + 1; j < objects.size(); j++) {
+            PhysicsObject3D obj2 = objects.get(j);
+            energy -= G_CONST * obj.m * obj2.m / Vector3D.distance(obj.s, obj2.s);
+         }
+      }
+      return energy;
+   }
+}
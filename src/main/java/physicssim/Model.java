@@ -0,0 +1,167 @@
+package physicssim;
+
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Physics of a single simulation step (gravity, collisions and movement), independent of the simulation driver so it can
+ * be run on any list of objects.
+ */
+public abstract class Model extends Gravity {
+
+   /**
+    * Gets informed about every collision handled during a step
+    */
+   public interface CollisionListener {
+      /**
+       * @param obj colliding object
+       * @param obj2 colliding object
+       * @param collisionObj object both were merged into
+       */
+      void collided(PhysicsObject3D obj, PhysicsObject3D obj2, PhysicsObject3D collisionObj);
+   }
+
+   /**
+    * Performs a single iteration simulating dt time.
+    * Applies gravity and moves objects, checks and handles collisions
+    * @param objects all objects, modified in place (collided objects are replaced by their merged object)
+    * @param solver gravity solver
+    * @param dt timestep in s
+    * @param listener informed about collisions, may be null
+    * @return number of gravitational force evaluations (object pairs) performed
+    */
+   public static long step(List<PhysicsObject3D> objects, Solver solver, double dt, CollisionListener listener) {
+      return step(objects, solver, dt, true, listener);
+   }
+
+   /**
+    * Performs a single iteration simulating dt time without collision handling, objects pass through each other.
+    * Meant for trial runs on copies of the objects: no merged objects are created, so PhysicsObject3D.ID is left untouched.
+    * @param objects all objects, modified in place
+    * @param solver gravity solver
+    * @param dt timestep in s
+    * @return number of gravitational force evaluations (object pairs) performed
+    */
+   public static long step(List<PhysicsObject3D> objects, Solver solver, double dt) {
+      return step(objects, solver, dt, false, null);
+   }
+
+   private static long step(List<PhysicsObject3D> objects, Solver solver, double dt, boolean collisions, CollisionListener listener) {
+      long n = objects.size();
+      long forceEvaluations = 0;
+
+      if (solver == Solver.PAIRWISE) {
+         applyPairwise(objects);
+         forceEvaluations = n * (n - 1) / 2;
+      } else if (solver == Solver.DIRECT)
+         forceEvaluations = n * (n - 1);
+
+      // Objects that are supposed to be removed or added (due to collision) after looping over all objects
+      Stack<PhysicsObject3D> objToRemove = new Stack<PhysicsObject3D>();
+      Stack<PhysicsObject3D> objToAdd = new Stack<PhysicsObject3D>();
+
+      objects.forEach((obj) -> {
+         if (solver == Solver.DIRECT) {
+            // reset forces
+            obj.a.vector = new double[3];
+
+            // apply gravitational forces to the object if obj not massless
+            if (obj.m > 0d)
+               apply(obj, objects);
+         }
+
+         // collision detection
+         if (collisions) {
+            objects.forEach((obj2) -> {
+               // Make sure that objects that are checked for collision have not already collided before
+               if (obj != obj2 && primitiveCollisionCheck(obj, obj2) && !(objToRemove.contains(obj) || objToRemove.contains(obj2))) {
+                  PhysicsObject3D collisionObj = handleCollisions(obj, obj2);
+                  objToAdd.add(collisionObj);
+                  objToRemove.add(obj);
+                  objToRemove.add(obj2);
+                  if (listener != null)
+                     listener.collided(obj, obj2, collisionObj);
+               }
+            });
+         }
+
+         // update position and velocity in space for DT
+         for (int i = 0; i < 3; i++) {
+            obj.s.vector[i] += obj.v.vector[i] * dt;
+            obj.v.vector[i] += obj.a.vector[i] * dt;
+         }
+      });
+
+      // Remove collided objects
+      while (objToRemove.size() > 0) {
+         if (objects.contains(objToRemove.peek())) {
+            PhysicsObject3D collidedObj = objToRemove.pop();
+            objects.remove(collidedObj);
+         } else
+            throw new IllegalStateException("Tried to remove an object that didn't exist but should have.");
+      }
+
+      // Add new objects created by collisions (merged from two colliding objects)
+      while (objToAdd.size() > 0) {
+         PhysicsObject3D collisionObj = objToAdd.pop();
+         objects.add(collisionObj);
+      }
+
+      return forceEvaluations;
+   }
+
+   /**
+    * Simple first way of checking if two objects collide. Assumes all objects are spheres and checks if any two objects are closer than their added radii
+    * @param obj potentially colliding object
+    * @param obj2 potentially colliding object
+    * @return true if they collide
+    */
+   protected static boolean primitiveCollisionCheck(PhysicsObject3D obj, PhysicsObject3D obj2) {
+      double collisionDistance = obj.r + obj2.r;
+      double distance = Vector3D.distance(obj.s, obj2.s);
+      if (distance < collisionDistance) {
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Creates an object that represents the given objects in a merged state.
+    * Its new properties are physically accurately calculated based of collision information and object information of the colliding objects.
+    * @param obj colliding object
+    * @param obj2 colliding object
+    * @return merged object
+    */
+   protected static PhysicsObject3D handleCollisions(PhysicsObject3D obj, PhysicsObject3D obj2) {
+      // For new m
+      double new_m = obj.m + obj2.m;
+
+
+      // For new r
+      double totalVol = obj.getVolume() + obj2.getVolume();
+      double new_r = Math.sqrt(totalVol/((4/3)*Math.PI));
+
+
+      // For new s
+      Vector3D helper_distance_vector = Vector3D.substract(obj2.s, obj.s);
+      helper_distance_vector.scale(0.5);
+
+      Vector3D new_s = Vector3D.add(obj.s, helper_distance_vector);
+
+
+      // For new v
+      double obj_Ekin = obj.getKineticEnergy();
+      double obj2_Ekin = obj2.getKineticEnergy();
+      double totalKin = obj_Ekin + obj2_Ekin;
+      // Scale vectors relative to the their total kinetic energy
+      Vector3D obj_v = obj.v.clone();
+      obj_v.scale(obj_Ekin/totalKin);
+      Vector3D obj2_v = obj2.v.clone();
+      obj2_v.scale(obj2_Ekin/totalKin);
+
+      Vector3D new_v = Vector3D.add(obj_v, obj2_v);
+
+
+      return new PhysicsObject3D(new_r, new_m, new_s.vector, new_v.vector);
+   }
+}
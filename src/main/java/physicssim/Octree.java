@@ -0,0 +1,273 @@
+package physicssim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Barnes-Hut octree over the objects of one domain. Every cell knows the total mass and center of mass of the objects inside
+ * it, so a group of objects that is far enough away can be treated as a single mass.
+ */
+public class Octree {
+
+   /**
+    * Cells are not split below this depth, so objects at (almost) the same position share a leaf
+    */
+   private static final int MAX_DEPTH = 48;
+
+   /**
+    * Cube in space, either split into up to eight children or a leaf holding objects
+    */
+   private static class Cell {
+
+      /**
+       * geometric center in m
+       */
+      final double[] center;
+
+      /**
+       * half the side length in m
+       */
+      final double half;
+
+      /**
+       * total mass in kg
+       */
+      double m;
+
+      /**
+       * center of mass in m
+       */
+      final double[] com = new double[3];
+
+      /**
+       * largest radius of an object inside in m
+       */
+      double maxR;
+
+      /**
+       * children by octant, null for leaves
+       */
+      Cell[] children;
+
+      /**
+       * indices of the objects in a leaf
+       */
+      List<Integer> indices = new ArrayList<>(1);
+
+      Cell(double[] center, double half) {
+         this.center = center;
+         this.half = half;
+      }
+
+      /**
+       * Distance from a point to the closest point of the cube, 0 if it lies inside
+       */
+      double distance(double[] p) {
+         double sum = 0;
+         for (int i = 0; i < 3; i++) {
+            double d = Math.max(Math.abs(p[i] - center[i]) - half, 0);
+            sum += d * d;
+         }
+         return Math.sqrt(sum);
+      }
+   }
+
+   private final List<PhysicsObject3D> objects;
+
+   private final Cell root;
+
+   /**
+    *
+    * @param objects objects to sort into the tree, later referred to by their index in this list
+    */
+   public Octree(List<PhysicsObject3D> objects) {
+      this.objects = objects;
+
+      double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+      double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+      for (PhysicsObject3D obj : objects) {
+         for (int i = 0; i < 3; i++) {
+            min[i] = Math.min(min[i], obj.s.vector[i]);
+            max[i] = Math.max(max[i], obj.s.vector[i]);
+         }
+      }
+      double half = 0;
+      double[] center = new double[3];
+      if (!objects.isEmpty()) {
+         for (int i = 0; i < 3; i++) {
+            center[i] = (min[i] + max[i]) / 2;
+            half = Math.max(half, (max[i] - min[i]) / 2);
+         }
+      }
+      root = new Cell(center, half);
+
+      for (int i = 0; i < objects.size(); i++)
+         insert(root, i, 0);
+      summarise(root);
+   }
+
+   private void insert(Cell cell, int index, int depth) {
+      if (cell.children == null) {
+         if (cell.indices.isEmpty() || depth >= MAX_DEPTH) {
+            cell.indices.add(index);
+            return;
+         }
+         // turn the leaf into an inner cell
+         cell.children = new Cell[8];
+         for (int previous : cell.indices)
+            insertChild(cell, previous, depth);
+         cell.indices = null;
+      }
+      insertChild(cell, index, depth);
+   }
+
+   private void insertChild(Cell cell, int index, int depth) {
+      double[] s = objects.get(index).s.vector;
+      int octant = 0;
+      double[] center = new double[3];
+      for (int i = 0; i < 3; i++) {
+         if (s[i] >= cell.center[i]) {
+            octant |= 1 << i;
+            center[i] = cell.center[i] + cell.half / 2;
+         } else
+            center[i] = cell.center[i] - cell.half / 2;
+      }
+      if (cell.children[octant] == null)
+         cell.children[octant] = new Cell(center, cell.half / 2);
+      insert(cell.children[octant], index, depth + 1);
+   }
+
+   private void summarise(Cell cell) {
+      if (cell.children == null) {
+         for (int index : cell.indices) {
+            PhysicsObject3D obj = objects.get(index);
+            add(cell, obj.m, obj.s.vector, obj.r);
+         }
+      } else {
+         for (Cell child : cell.children) {
+            if (child != null) {
+               summarise(child);
+               add(cell, child.m, child.com, child.maxR);
+            }
+         }
+      }
+      if (cell.m > 0)
+         for (int i = 0; i < 3; i++)
+            cell.com[i] /= cell.m;
+   }
+
+   /**
+    * Adds a mass to the (not yet normalised) center of mass of a cell
+    */
+   private static void add(Cell cell, double m, double[] s, double r) {
+      cell.m += m;
+      for (int i = 0; i < 3; i++)
+         cell.com[i] += s[i] * m;
+      cell.maxR = Math.max(cell.maxR, r);
+   }
+
+   /**
+    * Adds the gravitational acceleration caused by all objects of the tree to the a of obj. Cells whose side length divided by
+    * their distance to obj is below theta are treated as a single mass.
+    * @param obj object that is being pulled, skipped in the sum if it is part of the tree
+    * @param theta opening angle, 0 sums up every object (exact result)
+    */
+   public void accelerate(PhysicsObject3D obj, double theta) {
+      if (obj.m > 0)
+         accelerate(root, obj, theta);
+   }
+
+   private void accelerate(Cell cell, PhysicsObject3D obj, double theta) {
+      if (cell.m == 0)
+         return;
+      double[] s = obj.s.vector;
+      if (cell.children == null) {
+         for (int index : cell.indices) {
+            PhysicsObject3D obj2 = objects.get(index);
+            if (obj2 != obj && obj2.m != 0d)
+               pull(obj, obj2.m, obj2.s.vector);
+         }
+      } else if (cell.distance(s) > 0 && 2 * cell.half < theta * distance(s, cell.com))
+         pull(obj, cell.m, cell.com);
+      else
+         for (Cell child : cell.children)
+            if (child != null)
+               accelerate(child, obj, theta);
+   }
+
+   /**
+    * Adds the acceleration towards mass m at position p to obj
+    */
+   private static void pull(PhysicsObject3D obj, double m, double[] p) {
+      double dx = p[0] - obj.s.vector[0];
+      double dy = p[1] - obj.s.vector[1];
+      double dz = p[2] - obj.s.vector[2];
+      double ED2 = dx * dx + dy * dy + dz * dz;
+      double g = Util.G_CONST * m / (ED2 * Math.sqrt(ED2));
+      obj.a.vector[0] += dx * g;
+      obj.a.vector[1] += dy * g;
+      obj.a.vector[2] += dz * g;
+   }
+
+   private static double distance(double[] p, double[] q) {
+      double dx = p[0] - q[0], dy = p[1] - q[1], dz = p[2] - q[2];
+      return Math.sqrt(dx * dx + dy * dy + dz * dz);
+   }
+
+   /**
+    * Distance from a point to the closest point of a box, 0 if it lies inside
+    */
+   private static double distance(double[] p, double[] min, double[] max) {
+      double sum = 0;
+      for (int i = 0; i < 3; i++) {
+         double d = Math.max(Math.max(min[i] - p[i], p[i] - max[i]), 0);
+         sum += d * d;
+      }
+      return Math.sqrt(sum);
+   }
+
+   /**
+    * Collects what another domain needs from this tree to calculate gravity and collisions of its objects (its locally
+    * essential part of the tree): objects that could touch one of its objects, and everything else as mass points, either as
+    * whole cells that are far enough away from every point of its bounding box or as single objects.
+    * @param min lower corner of the bounding box of the other domains objects
+    * @param max upper corner of the bounding box of the other domains objects
+    * @param maxR largest radius of an object in the other domain, objects that could touch one of them are always collected
+    * @param theta opening angle
+    * @param indices receives the indices of objects to send with their radius for collision detection
+    * @param summaries receives the mass points to send
+    */
+   public void export(Vector3D min, Vector3D max, double maxR, double theta, List<Integer> indices, List<PhysicsObject3D> summaries) {
+      if (!objects.isEmpty())
+         export(root, min.vector, max.vector, maxR, theta, indices, summaries);
+   }
+
+   private void export(Cell cell, double[] min, double[] max, double maxR, double theta, List<Integer> indices, List<PhysicsObject3D> summaries) {
+      // distance of the center of mass and of the closest point of the cell to the box
+      double comDistance = distance(cell.com, min, max);
+      double cellDistance = 0;
+      for (int i = 0; i < 3; i++) {
+         double d = Math.max(Math.max(min[i] - (cell.center[i] + cell.half), (cell.center[i] - cell.half) - max[i]), 0);
+         cellDistance += d * d;
+      }
+      cellDistance = Math.sqrt(cellDistance);
+
+      boolean mayTouch = cellDistance <= cell.maxR + maxR;
+      if (cell.m == 0 && !mayTouch)
+         return;
+      if (cell.children == null) {
+         for (int index : cell.indices) {
+            PhysicsObject3D obj = objects.get(index);
+            if (distance(obj.s.vector, min, max) <= obj.r + maxR)
+               indices.add(index);
+            else if (obj.m != 0d)
+               summaries.add(new PhysicsObject3D("", 0, obj.m, obj.s.vector.clone()));
+         }
+      } else if (!mayTouch && comDistance > 0 && 2 * cell.half < theta * comDistance)
+         summaries.add(new PhysicsObject3D("", 0, cell.m, cell.com.clone()));
+      else
+         for (Cell child : cell.children)
+            if (child != null)
+               export(child, min, max, maxR, theta, indices, summaries);
+   }
+}
@@ -0,0 +1,186 @@
+package physicssim;
+
+import java.util.List;
+
+/**
+ * Osculating orbital elements of an object relative to a chosen primary, and its orbital period. The period is detected
+ * from node crossings: every time the object passes through the plane that contains the primary, the initial angular
+ * momentum and the initial position, in the direction of motion.
+ * <p>
+ * Objects moving straight towards or away from the primary have no angular momentum and no orbital plane. Their inclination,
+ * node, periapsis and anomaly are NaN and the crossing plane is chosen once they first move sideways.
+ */
+public class OrbitAnalyzer implements Analyzer {
+
+   private final String name;
+
+   private final String primary;
+
+   /**
+    * Osculating elements of the last update: semi-major axis in m, eccentricity, inclination, longitude of the ascending
+    * node, argument of periapsis and true anomaly in rad
+    */
+   private double a, e, i, node, periapsis, anomaly;
+
+   /**
+    * Normal of the crossing plane, chosen on the first update with angular momentum
+    */
+   private Vector3D crossingNormal;
+
+   /**
+    * Time and distance to the crossing plane of the previous update
+    */
+   private double tLast, sideLast;
+
+   private int crossings;
+
+   private double tFirstCrossing, tLastCrossing, lastPeriod;
+
+   /**
+    *
+    * @param name name of the orbiting object
+    * @param primary name of the object it orbits
+    */
+   public OrbitAnalyzer(String name, String primary) {
+      this.name = name;
+      this.primary = primary;
+   }
+
+   @Override
+   public void update(double t, List<PhysicsObject3D> objects) {
+      PhysicsObject3D obj = Analyzer.find(objects, name);
+      PhysicsObject3D center = Analyzer.find(objects, primary);
+      if (obj == null || center == null)
+         return;
+
+      Vector3D r = Vector3D.substract(obj.s, center.s);
+      Vector3D v = Vector3D.substract(obj.v, center.v);
+      double mu = Util.G_CONST * (obj.m + center.m);
+      elements(r, v, mu);
+
+      // Period from crossings of the plane spanned by the initial angular momentum and position
+      if (crossingNormal == null) {
+         if (radial(r, v))
+            return;
+         // the object starts on the plane, so this counts as the first crossing
+         crossingNormal = cross(cross(r, v), r);
+         crossingNormal.normalize();
+         tFirstCrossing = t;
+         tLastCrossing = t;
+         crossings = 1;
+         sideLast = 0;
+      } else {
+         double side = dot(r, crossingNormal);
+         if (sideLast < 0 && side >= 0) {
+            // linear interpolation of the crossing time
+            double tCrossing = tLast + (t - tLast) * -sideLast / (side - sideLast);
+            lastPeriod = tCrossing - tLastCrossing;
+            tLastCrossing = tCrossing;
+            crossings++;
+         }
+         sideLast = side;
+      }
+      tLast = t;
+   }
+
+   /**
+    * Calculates the osculating elements from the relative state vectors
+    */
+   private void elements(Vector3D r, Vector3D v, double mu) {
+      Vector3D h = cross(r, v);
+      double rLength = r.length();
+      double energy = dot(v, v) / 2 - mu / rLength;
+      a = -mu / (2 * energy);
+
+      // eccentricity vector points to the periapsis
+      Vector3D eV = cross(v, h);
+      eV.scale(1 / mu);
+      Vector3D rUnit = r.clone();
+      rUnit.normalize();
+      eV = Vector3D.substract(eV, rUnit);
+      e = eV.length();
+
+      if (radial(r, v)) {
+         i = node = periapsis = anomaly = Double.NaN;
+         return;
+      }
+      i = Math.acos(h.vector[2] / h.length());
+      // ascending node lies on the intersection with the xy-plane, undefined for orbits within it
+      Vector3D n = new Vector3D(-h.vector[1], h.vector[0], 0);
+      node = n.length() > 0 ? Math.atan2(n.vector[1], n.vector[0]) : 0;
+      if (n.length() > 0 && e > 0)
+         periapsis = angle(n, eV, h);
+      else
+         periapsis = (Math.atan2(eV.vector[1], eV.vector[0]) + 2 * Math.PI) % (2 * Math.PI);
+      anomaly = e > 0 ? angle(eV, r, h) : angle(n.length() > 0 ? n : new Vector3D(1, 0, 0), r, h);
+   }
+
+   /**
+    * @return true if the velocity is parallel to the position (angle below 1e-9 rad) or zero, so there is no orbital plane
+    */
+   private static boolean radial(Vector3D r, Vector3D v) {
+      return !(cross(r, v).length() > 1e-9 * r.length() * v.length());
+   }
+
+   /**
+    * Angle from u to w in [0, 2 PI) measured counter-clockwise around the axis h
+    */
+   private static double angle(Vector3D u, Vector3D w, Vector3D h) {
+      double angle = Math.atan2(dot(cross(u, w), h) / h.length(), dot(u, w));
+      return angle < 0 ? angle + 2 * Math.PI : angle;
+   }
+
+   private static Vector3D cross(Vector3D u, Vector3D w) {
+      return new Vector3D(u.vector[1] * w.vector[2] - u.vector[2] * w.vector[1],
+            u.vector[2] * w.vector[0] - u.vector[0] * w.vector[2],
+            u.vector[0] * w.vector[1] - u.vector[1] * w.vector[0]);
+   }
+
+   private static double dot(Vector3D u, Vector3D w) {
+      return u.vector[0] * w.vector[0] + u.vector[1] * w.vector[1] + u.vector[2] * w.vector[2];
+   }
+
+   /**
+    * @return osculating semi-major axis in m
+    */
+   public double getSemiMajorAxis() {
+      return a;
+   }
+
+   /**
+    * @return osculating eccentricity
+    */
+   public double getEccentricity() {
+      return e;
+   }
+
+   /**
+    * @return osculating inclination to the xy-plane in rad, NaN for radial motion
+    */
+   public double getInclination() {
+      return i;
+   }
+
+   /**
+    * @return mean orbital period over all completed orbits in s, NaN before the first orbit completed
+    */
+   public double getPeriod() {
+      return crossings > 1 ? (tLastCrossing - tFirstCrossing) / (crossings - 1) : Double.NaN;
+   }
+
+   /**
+    * @return duration of the last completed orbit in s, NaN before the first orbit completed
+    */
+   public double getLastPeriod() {
+      return crossings > 1 ? lastPeriod : Double.NaN;
+   }
+
+   @Override
+   public String report() {
+      if (Double.isNaN(i))
+         return String.format("%s around %s: a=%6.3em, e=%6.4f, radial motion without orbital plane", name, primary, a, e);
+      return String.format("%s around %s: a=%6.3em, e=%6.4f, i=%6.2f°, Ω=%6.2f°, ω=%6.2f°, ν=%6.2f°, period=%6.3es (last %6.3es, %d orbits)",
+            name, primary, a, e, Math.toDegrees(i), Math.toDegrees(node), Math.toDegrees(periapsis), Math.toDegrees(anomaly),
+            getPeriod(), getLastPeriod(), Math.max(crossings - 1, 0));
+   }
+}
@@ -54,6 +54,126 @@ public abstract class Setup extends Util {
     */
    protected static final double PRINT_DT_S = ORBITAL_PERIOD_EARTH/12;
 
+   /**
+    * Number of steps between two published snapshots of the simulation state while observers are subscribed (see
+    * Sim.SNAPSHOTS). Steps that print their state (PRINT_VERBOSE) or were requested are always published.
+    */
+   protected static final int SNAPSHOT_EVERY_N_STEPS = 1000;
+
+   /**
+    * Number of past snapshots observers can still request by step number
+    */
+   protected static final int SNAPSHOT_HISTORY = 64;
+
+   /**
+    * Record the trajectories of all objects into EPHEMERIS_FILE so their state can be queried at any time after the simulation.
+    */
+   protected static final boolean EPHEMERIS_ENABLED = false;
+
+   /**
+    * Time in s between two recorded samples of the ephemeris. Positions in between are interpolated, so this should be well
+    * below the shortest orbital period of interest.
+    */
+   protected static final double EPHEMERIS_DT_S = 86400;
+
+   /**
+    * File the ephemeris is written to
+    */
+   protected static final String EPHEMERIS_FILE = "logs/ephemeris.bin";
+
+
+
+   /******************** ANALYSIS ********************/
+
+   /**
+    * Number of steps between two updates of the analyzers. Lower values detect extremes and periods more precisely.
+    * With WORKER_PROCESSES > 0 only used if DOMAIN_ANALYZE is set.
+    */
+   protected static final int ANALYZE_EVERY_N_STEPS = 100;
+
+   /**
+    * List containing all analyzers that are updated during the simulation. Their reports are published with every snapshot
+    * (see Sim.SNAPSHOTS) and printed at the end of the simulation.
+    */
+   protected static ArrayList<Analyzer> analyzers = new ArrayList<>();
+
+   /**
+    * Adds all analyzers whose results should be calculated while the simulation runs
+    */
+   protected static void addAnalyzers() {
+      analyzers.add(new OrbitAnalyzer("Earth", "Sun"));
+      analyzers.add(new OrbitAnalyzer("Moon", "Earth"));
+      analyzers.add(new DistanceAnalyzer("Earth", "Moon"));
+      analyzers.add(new EnergyDriftAnalyzer());
+   }
+
+
+
+   /******************** AUTO TUNING ********************/
+
+   /**
+    * Let the simulator choose gravity solver and timestep (between DT_MS / 4 and DT_MS * 8) by briefly profiling them on the
+    * modelled objects. Tuning is repeated every TUNE_INTERVAL_S and when merges changed the number of objects by more than
+    * TUNE_OBJECT_CHANGE. Not used with WORKER_PROCESSES > 0.
+    */
+   protected static final boolean AUTO_TUNE_ENABLED = false;
+
+   /**
+    * Accuracy target for auto tuning: maximum relative change of the total energy over TUNE_INTERVAL_S, the time a chosen
+    * configuration is used for. The error of a short profiling run is scaled up to this interval, as it grows steadily with
+    * simulated time. If no candidate meets the target the most accurate one is used.
+    */
+   protected static final double TUNE_MAX_ENERGY_ERROR = 1e-6;
+
+   /**
+    * Number of steps every candidate configuration is profiled for. Limits the cost of a tuning to 14 times this many steps.
+    */
+   protected static final int TUNE_STEPS = 2000;
+
+   /**
+    * Simulated time in s after which the configuration is tuned again as the objects move
+    */
+   protected static final double TUNE_INTERVAL_S = ORBITAL_PERIOD_EARTH;
+
+   /**
+    * Relative change of the number of objects (through merges) since the last tuning that triggers a new one. Keeps
+    * collision heavy runs from spending their time profiling.
+    */
+   protected static final double TUNE_OBJECT_CHANGE = 0.1;
+
+
+
+   /******************** DISTRIBUTION ********************/
+
+   /**
+    * Number of worker processes (JVMs on localhost) the objects are distributed over. Space is split into this many domains,
+    * every worker owns, moves and collides the objects of its domain. 0 simulates everything in this process.
+    * <p>
+    * Results differ from a local run beyond the approximation of DOMAIN_THETA: workers calculate all accelerations before
+    * moving any object (like Gravity.Solver.PAIRWISE, not DIRECT which moves objects one after another) and colliding objects
+    * are merged after they moved, while a local step merges them before.
+    */
+   protected static final int WORKER_PROCESSES = 0;
+
+   /**
+    * Collect all objects into this process every ANALYZE_EVERY_N_STEPS to update the analyzers while running distributed.
+    * This copies the full state to a single process and runs the analyzers there (EnergyDriftAnalyzer is O(N^2)), which
+    * undoes the point of distributing large runs. Off, the analyzers only see the initial and the final state.
+    */
+   protected static final boolean DOMAIN_ANALYZE = false;
+
+   /**
+    * Opening angle of the workers' Barnes-Hut trees. A cell whose size divided by its distance is below this value is treated as
+    * a single mass, both within a domain and when it is sent to other domains. 0 always sums up every object (exact result).
+    */
+   protected static final double DOMAIN_THETA = 0.5;
+
+   /**
+    * Number of steps after which the domains are split again from the current positions and objects that left their domain
+    * move to the worker of their new one.
+    */
+   protected static final int DOMAIN_REBALANCE_EVERY_N_STEPS = 100;
+
    /**
     * Adds all objects that should be modelled in the simulation
     */
@@ -1,8 +1,10 @@
 package physicssim;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Stack;
+import java.util.List;
 
 /**
  * Main class running the simulation and updates.
@@ -22,11 +24,21 @@ public abstract class Sim extends Setup {
     */
    private static final long N = (long) (SIM_T_S / DT_S);
 
+   /**
+    * Timestep in s currently used for modelling. Equals DT_S unless changed by auto tuning
+    */
+   private static double dt = DT_S;
+
    /**
     * Keeps track of current time of simulation in seconds
     */
    private static double timeInSim;
 
+   /**
+    * Number of completed iterations of modelStep
+    */
+   private static long step;
+
    
 
    /******************** SIMULATION OBJECTS ********************/
@@ -38,6 +50,15 @@ public abstract class Sim extends Setup {
 
 
 
+   /**
+    * Published state of the simulation. Observers (printing, logging, viewers) read from here instead of physicsObjects
+    * so they never see objects in the middle of an update and never block the simulation. Other threads subscribe or
+    * request steps to receive more than the printed states.
+    */
+   public static final SnapshotPublisher SNAPSHOTS = new SnapshotPublisher(SNAPSHOT_HISTORY, SNAPSHOT_EVERY_N_STEPS);
+
+
+
    /******************** OTHERS ********************/
 
    /**
@@ -71,27 +92,56 @@ public abstract class Sim extends Setup {
    private static double timeForPrint;
 
    /**
-    * Contains all objects that are supposed to be removed (due to collision) after lambda-looping over all objects.
+    * Counting time and modified at runtime to manage when to record the ephemeris
+    */
+   private static double timeForEphemeris;
+
+   /**
+    * Connection to the worker processes owning the objects if WORKER_PROCESSES > 0
+    */
+   private static DomainCoordinator domainCoordinator;
+
+   /**
+    * Trajectory store if EPHEMERIS_ENABLED
+    */
+   private static Ephemeris ephemeris;
+
+   /**
+    * Gravity solver used if calculated in this process
+    */
+   private static Gravity.Solver solver = Gravity.Solver.DIRECT;
+
+   /**
+    * Number of objects at the time of the last auto tuning
     */
-   private static Stack<PhysicsObject3D> objToRemove = new Stack<PhysicsObject3D>();
+   private static int tunedObjectCount;
 
    /**
-    * Contains all objects that are supposed to be added (due to collision) after lambda-looping over all objects.
+    * Counting time and modified at runtime to manage when to tune again
     */
-   private static Stack<PhysicsObject3D> objToAdd = new Stack<PhysicsObject3D>();
+   private static double timeForTune;
 
 
 
-   public static void main(String[] args) throws InterruptedException {
+   public static void main(String[] args) throws InterruptedException, IOException {
       setup();
 
       totalTimerStart = System.nanoTime();
 
       while (timeInSim < SIM_T_S) {
-         timeInSim += DT_S;
+         // Tune again if enough objects merged or the configuration is outdated
+         if (AUTO_TUNE_ENABLED && domainCoordinator == null) {
+            timeForTune += dt;
+            if (Math.abs(physicsObjects.size() - tunedObjectCount) > TUNE_OBJECT_CHANGE * tunedObjectCount || timeForTune >= TUNE_INTERVAL_S) {
+               timeForTune = 0;
+               autoTune();
+            }
+         }
+
+         timeInSim += dt;
 
          // Manage priting at correct iterations based on PRINT_DT
-         timeForPrint += DT_S;
+         timeForPrint += dt;
          if (timeForPrint > PRINT_DT_S) {
             timeForPrint -= PRINT_DT_S;
             printThisIter = true;
@@ -108,81 +158,96 @@ public abstract class Sim extends Setup {
          }
             
          modelStep();
+         step++;
+
+         boolean publish = SNAPSHOTS.wanted(step) || (PRINT_VERBOSE && printThisIter) || timeInSim >= SIM_T_S;
+         boolean analyze = (step % ANALYZE_EVERY_N_STEPS == 0 && (domainCoordinator == null || DOMAIN_ANALYZE)) || timeInSim >= SIM_T_S;
+         boolean record = false;
+         if (ephemeris != null) {
+            timeForEphemeris += dt;
+            record = timeForEphemeris >= EPHEMERIS_DT_S || timeInSim >= SIM_T_S;
+         }
 
-         if (PRINT_VERBOSE && printThisIter)
+         // The workers own the objects, only collect them when they are observed
+         if (domainCoordinator != null && (publish || analyze || record)) {
+            physicsObjects.clear();
+            physicsObjects.addAll(domainCoordinator.gather());
+         }
+
+         // Update analyzers based on ANALYZE_EVERY_N_STEPS
+         if (analyze)
+            analyzers.forEach((analyzer) -> analyzer.update(timeInSim, physicsObjects));
+
+         if (publish)
+            SNAPSHOTS.publish(step, timeInSim, physicsObjects, analyzers);
+
+         // print state and distance to other objects in the simulation
+         if (PRINT_VERBOSE && printThisIter) {
+            printObjects(SNAPSHOTS.latest().objects());
             System.out.println();
+         }
+
+         // Sample trajectories based on EPHEMERIS_DT
+         if (record) {
+            timeForEphemeris = 0;
+            ephemeris.record(timeInSim, physicsObjects);
+         }
       }
 
       totalTimerEnd = System.nanoTime();
 
+      if (domainCoordinator != null)
+         domainCoordinator.close();
+
+      if (ephemeris != null)
+         ephemeris.close();
+
       printFinalState();
    }
 
    /**
     * Setup before entering simulation environment. Creates deepcopy of initial elements in case you would want to compare final values with it later
     */
-   private static void setup() {
+   private static void setup() throws IOException, InterruptedException {
       Setup.addModelledObjects();
+      Setup.addAnalyzers();
+
+      if (WORKER_PROCESSES > 0)
+         domainCoordinator = new DomainCoordinator(WORKER_PROCESSES);
+
+      if (EPHEMERIS_ENABLED) {
+         ephemeris = new Ephemeris(new File(EPHEMERIS_FILE), Ephemeris.DEFAULT_CACHE_BLOCKS);
+         ephemeris.record(0, physicsObjects);
+      }
 
       // State at begin of simulation (t = 0s)
       printInitialState();
 
       // Copy initial objects
       physicsObjects.forEach((obj) -> initPhysicsObjects.add(obj.clone()));
+
+      analyzers.forEach((analyzer) -> analyzer.update(0, physicsObjects));
+
+      SNAPSHOTS.publish(0, 0, physicsObjects, analyzers);
+
+      // From here on the workers own the objects
+      if (domainCoordinator != null)
+         domainCoordinator.distribute(physicsObjects);
    }
 
    /**
     * Performs a single iteration of the simulation simulating DT time. 
     * Applies gravity and moves objects, checks and handles collisions
     * @throws InterruptedException exception in case the Thread for realtime mode gets interrupted
+    * @throws IOException exception in case communication with a worker process fails
     */
-   private static void modelStep() throws InterruptedException {
-      physicsObjects.forEach((obj) -> {
-         // reset forces
-         obj.a.vector = new double[3];
-
-         // apply gravitational forces to the object if obj not massless
-         if (obj.m > 0d)
-            gravity(obj);
-
-         // collision detection
-         physicsObjects.forEach((obj2) -> {
-            // Make sure that objects that are checked for collision have not already collided before
-            if (obj != obj2 && primitiveCollisionCheck(obj, obj2) && !(objToRemove.contains(obj) || objToRemove.contains(obj2)))
-               handleCollisions(obj, obj2);
-         });
-
-         // update position and velocity in space for DT
-         for (int i = 0; i < 3; i++) {
-            obj.s.vector[i] += obj.v.vector[i] * DT_S;
-            obj.v.vector[i] += obj.a.vector[i] * DT_S;
-         }
-
-         // print distance to other objects in the simulation
-         if (PRINT_VERBOSE && printThisIter) {
-            System.out.println(obj);
-            physicsObjects.forEach((obj2) -> {
-               if (obj != obj2)
-                  System.out.println(String.format("            %6.2em away from %s.", Vector3D.distance(obj.s, obj2.s), obj2.name));
-            });
-            System.out.println();
-         }
-      });
-
-      // Remove collided objects
-      while (objToRemove.size() > 0) {
-         if (physicsObjects.contains(objToRemove.peek())) {
-            PhysicsObject3D collidedObj = objToRemove.pop();
-            physicsObjects.remove(collidedObj);
-         } else
-            throw new IllegalStateException("Tried to remove an object that didn't exist but should have.");
-      }
-
-      // Add new objects created by collisions (merged from two colliding objects)
-      while (objToAdd.size() > 0) {
-         PhysicsObject3D collisionObj = objToAdd.pop();
-         physicsObjects.add(collisionObj);
-      }
+   private static void modelStep() throws InterruptedException, IOException {
+      if (domainCoordinator != null) {
+         domainCoordinator.step(dt, DOMAIN_THETA, Sim::printCollision);
+         if ((step + 1) % DOMAIN_REBALANCE_EVERY_N_STEPS == 0)
+            domainCoordinator.rebalance();
+      } else
+         Model.step(physicsObjects, solver, dt, Sim::printCollision);
 
 
       // Stop measuring time
@@ -195,7 +260,7 @@ public abstract class Sim extends Setup {
             // First iteration ignores this
             if (REALTIME_timerStart != 0)
                passedTimeInMs = (int) Math.abs(((REALTIME_timerEnd - REALTIME_timerStart) / 1000000)); // Nanotime not necessarily positive
-            Thread.sleep(DT_MS - passedTimeInMs); // simulate realtime
+            Thread.sleep((long) (dt * 1000) - passedTimeInMs); // simulate realtime
          } catch (IllegalArgumentException e) {
             System.out.println("IllegalArgumentException: Tried to make Thread sleep < 0ms. Potentially caused by simulation running too slowly to allow REALTIME_MODE.");
             e.printStackTrace();
@@ -208,92 +273,25 @@ public abstract class Sim extends Setup {
    }
 
    /**
-    * Adds gravitational forces acting on this object to its a
-    * @param obj object that is being gravitationally pulled by other object's mass
+    * Profiles gravity solvers and timesteps on the current objects and switches to the fastest one meeting TUNE_MAX_ENERGY_ERROR
     */
-   private static void gravity(PhysicsObject3D obj) {
-      // Gravity Super Position Vector = total gravitational acceleration for this object
-      if (obj.m > 0) {
-         double[] gspV = new double[3];
-         physicsObjects.forEach((obj2) -> {
-            // If not same object and obj2 not massless
-            if (obj != obj2 && obj2.m != 0d) {
-               double ED = Vector3D.distance(obj.s, obj2.s);
-               double[] dirV = Vector3D.normDirV(obj.s, obj2.s).vector.clone();
-               // Force in Newtons
-               double forceInN = (G_CONST * obj.m * obj2.m) / Math.pow(ED, 2);
-               // F = m * a <=> a = F / m
-               double acc = forceInN / obj.m;
-               for (int i = 0; i < 3; i++) {
-                  gspV[i] += dirV[i] * acc;
-               }
-            }
-         });
-         for (int i = 0; i < 3; i++)
-            obj.a.vector[i] += gspV[i];
-      } else {
-
-      }
+   private static void autoTune() {
+      AutoTuner.Configuration configuration = AutoTuner.tune(physicsObjects, DT_S, TUNE_STEPS, TUNE_INTERVAL_S, TUNE_MAX_ENERGY_ERROR);
+      solver = configuration.solver;
+      dt = configuration.dtS;
+      tunedObjectCount = physicsObjects.size();
+
+      if (PRINT_VERBOSE)
+         System.out.println(String.format("Auto tuning for %d objects chose %s\n", tunedObjectCount, configuration));
    }
 
-
    /**
-    * Simple first way of checking if two objects collide. Assumes all objects are spheres and checks if any two objects are closer than their added radii
-    * @param obj potentially colliding object
-    * @param obj2 potentially colliding object
-    * @return true if they collide
-    */
-   private static boolean primitiveCollisionCheck(PhysicsObject3D obj, PhysicsObject3D obj2) {
-      double collisionDistance = obj.r + obj2.r;
-      double distance = Vector3D.distance(obj.s, obj2.s);
-      if (distance < collisionDistance) {
-         return true;
-      }
-      return false;
-   }
-
-   /**
-    * Handles collision occurences of given objects by removing them and adding an object that represents the objects in a merged state. 
-    * Its new properties are physically accurately calculated based of collision information and object information of the colliding objects.
+    * Prints collision occurences if PRINT_VERBOSE
     * @param obj colliding object
     * @param obj2 colliding object
+    * @param collisionObj object both were merged into
     */
-   private static void handleCollisions(PhysicsObject3D obj, PhysicsObject3D obj2) {
-      // For new m
-      double new_m = obj.m + obj2.m;
-
-
-      // For new r
-      double totalVol = obj.getVolume() + obj2.getVolume();
-      double new_r = Math.sqrt(totalVol/((4/3)*Math.PI));
-
-
-      // For new s
-      Vector3D helper_distance_vector = Vector3D.substract(obj2.s, obj.s);
-      helper_distance_vector.scale(0.5);
-
-      Vector3D new_s = Vector3D.add(obj.s, helper_distance_vector);
-
-
-      // For new v
-      double obj_Ekin = obj.getKineticEnergy();
-      double obj2_Ekin = obj2.getKineticEnergy();
-      double totalKin = obj_Ekin + obj2_Ekin;
-      // Scale vectors relative to the their total kinetic energy
-      Vector3D obj_v = obj.v.clone();
-      obj_v.scale(obj_Ekin/totalKin);
-      Vector3D obj2_v = obj2.v.clone();
-      obj2_v.scale(obj2_Ekin/totalKin);
-   
-      Vector3D new_v = Vector3D.add(obj_v, obj2_v);
-
-
-      PhysicsObject3D collisionObj = new PhysicsObject3D(new_r, new_m, new_s.vector, new_v.vector);
-
-      objToAdd.add(collisionObj);
-      objToRemove.add(obj);
-      objToRemove.add(obj2);
-
+   private static void printCollision(PhysicsObject3D obj, PhysicsObject3D obj2, PhysicsObject3D collisionObj) {
       if (PRINT_VERBOSE) {
          System.out.println("\n-----------------------------------------");
          System.out.println(String.format("Progress %.0f%% - Event occured at %dd %dh %dm %ds:", (100*timeInSim/DT_S)/N, (int) (timeInSim / 86400), (int) (timeInSim % 86400 / 3600), 
@@ -369,9 +367,24 @@ public abstract class Sim extends Setup {
       System.out.println(String.format("Final state at %dd %dh %dm %ds:", 
       (int) (SIM_T_S / 86400), (int) (SIM_T_S % 86400 / 3600), (int) (SIM_T_S % 3600 / 60), (int) (SIM_T_S % 60)));
       System.out.println("-------------------------------");
-      physicsObjects.forEach((obj) -> {
+      printObjects(SNAPSHOTS.latest().objects());
+
+      if (!analyzers.isEmpty()) {
+         System.out.println("Analysis:");
+         System.out.println("---------");
+         SNAPSHOTS.latest().reports().forEach(System.out::println);
+         System.out.println();
+      }
+   }
+
+   /**
+    * Prints the given objects and their distances to each other
+    * @param objects objects to print
+    */
+   private static void printObjects(List<PhysicsObject3D> objects) {
+      objects.forEach((obj) -> {
          System.out.println(obj);
-         physicsObjects.forEach((obj2) -> {
+         objects.forEach((obj2) -> {
             if (obj != obj2)
                System.out.println(String.format("            %6.2em away from %s.", Vector3D.distance(obj.s, obj2.s), obj2.name));
          });
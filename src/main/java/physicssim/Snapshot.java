@@ -0,0 +1,156 @@
+package physicssim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent copy of the state of all objects at the end of a simulation step, together with the reports of the analyzers at
+ * that time. The state is held in private arrays that are never modified after construction and every accessor returns
+ * values or fresh copies, so snapshots can be shared between any number of threads without locking and no reader can change
+ * what another one sees.
+ */
+public final class Snapshot {
+
+   /**
+    * Number of the step this state was reached in (0 = initial state)
+    */
+   public final long step;
+
+   /**
+    * Time in simulation in s
+    */
+   public final double t;
+
+   private final String[] names;
+
+   private final double[] m;
+
+   private final double[] r;
+
+   /**
+    * Position, velocity and acceleration of object i at [3 * i, 3 * i + 2]
+    */
+   private final double[] s, v, a;
+
+   private final List<String> reports;
+
+   /**
+    *
+    * @param step step number
+    * @param t time in simulation
+    * @param objects objects to copy
+    * @param analyzers analyzers whose current report to keep
+    */
+   public Snapshot(long step, double t, List<PhysicsObject3D> objects, List<? extends Analyzer> analyzers) {
+      this.step = step;
+      this.t = t;
+      String[] reports = new String[analyzers.size()];
+      for (int i = 0; i < reports.length; i++)
+         reports[i] = analyzers.get(i).report();
+      this.reports = Collections.unmodifiableList(Arrays.asList(reports));
+      int n = objects.size();
+      names = new String[n];
+      m = new double[n];
+      r = new double[n];
+      s = new double[3 * n];
+      v = new double[3 * n];
+      a = new double[3 * n];
+      for (int i = 0; i < n; i++) {
+         PhysicsObject3D obj = objects.get(i);
+         names[i] = obj.name;
+         m[i] = obj.m;
+         r[i] = obj.r;
+         System.arraycopy(obj.s.vector, 0, s, 3 * i, 3);
+         System.arraycopy(obj.v.vector, 0, v, 3 * i, 3);
+         System.arraycopy(obj.a.vector, 0, a, 3 * i, 3);
+      }
+   }
+
+   /**
+    * @return number of objects
+    */
+   public int size() {
+      return names.length;
+   }
+
+   /**
+    * @param name name of an object
+    * @return its index or -1 if there is no object with this name
+    */
+   public int indexOf(String name) {
+      for (int i = 0; i < names.length; i++)
+         if (names[i].equals(name))
+            return i;
+      return -1;
+   }
+
+   /**
+    * @param i index of the object
+    * @return name
+    */
+   public String name(int i) {
+      return names[i];
+   }
+
+   /**
+    * @param i index of the object
+    * @return mass in kg
+    */
+   public double mass(int i) {
+      return m[i];
+   }
+
+   /**
+    * @param i index of the object
+    * @return radius in m
+    */
+   public double radius(int i) {
+      return r[i];
+   }
+
+   /**
+    * @param i index of the object
+    * @return copy of the position in m
+    */
+   public Vector3D position(int i) {
+      return new Vector3D(s[3 * i], s[3 * i + 1], s[3 * i + 2]);
+   }
+
+   /**
+    * @param i index of the object
+    * @return copy of the velocity in m/s
+    */
+   public Vector3D velocity(int i) {
+      return new Vector3D(v[3 * i], v[3 * i + 1], v[3 * i + 2]);
+   }
+
+   /**
+    * @param i index of the object
+    * @return copy of the acceleration in m/s^2
+    */
+   public Vector3D acceleration(int i) {
+      return new Vector3D(a[3 * i], a[3 * i + 1], a[3 * i + 2]);
+   }
+
+   /**
+    * @return reports of the analyzers as of this step, in the order of the analyzers (read-only)
+    */
+   public List<String> reports() {
+      return reports;
+   }
+
+   /**
+    * @return new copies of all objects, changing them does not affect the snapshot
+    */
+   public List<PhysicsObject3D> objects() {
+      List<PhysicsObject3D> objects = new ArrayList<>(names.length);
+      for (int i = 0; i < names.length; i++) {
+         PhysicsObject3D obj = new PhysicsObject3D(names[i], r[i], m[i], position(i).vector, velocity(i).vector);
+         obj.a = acceleration(i);
+         objects.add(obj);
+      }
+      return objects;
+   }
+}
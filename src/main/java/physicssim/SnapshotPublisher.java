@@ -0,0 +1,139 @@
+package physicssim;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands snapshots from the simulation thread to any number of observer threads. Publishing and reading are lock free:
+ * the latest snapshot is a single volatile read, older ones are kept in a ring buffer of fixed size.
+ * <p>
+ * Copying the state costs time, so the simulation only publishes while observers are subscribed (every n steps) or for steps
+ * that were requested, besides the steps it needs itself.
+ */
+public class SnapshotPublisher {
+
+   /**
+    * Most recently published snapshot
+    */
+   private volatile Snapshot latest;
+
+   /**
+    * Recently published snapshots, indexed by publish count modulo capacity
+    */
+   private final AtomicReferenceArray<Snapshot> history;
+
+   /**
+    * Number of snapshots published so far, only used by the simulation thread
+    */
+   private long published;
+
+   /**
+    * Number of steps between two snapshots while observers are subscribed
+    */
+   private final int everyNSteps;
+
+   private final AtomicInteger subscribers = new AtomicInteger();
+
+   /**
+    * Future steps observers asked for
+    */
+   private final ConcurrentSkipListSet<Long> requested = new ConcurrentSkipListSet<>();
+
+   /**
+    *
+    * @param capacity number of past snapshots that can be looked up by step
+    * @param everyNSteps number of steps between two snapshots while observers are subscribed
+    */
+   public SnapshotPublisher(int capacity, int everyNSteps) {
+      if (capacity < 1)
+         throw new IllegalArgumentException("Snapshot history needs a capacity of at least 1: " + capacity);
+      if (everyNSteps < 1)
+         throw new IllegalArgumentException("Cannot publish less than every step: " + everyNSteps);
+      history = new AtomicReferenceArray<>(capacity);
+      this.everyNSteps = everyNSteps;
+   }
+
+   /**
+    * Starts publishing every n steps until the observer unsubscribes again.
+    */
+   public void subscribe() {
+      subscribers.incrementAndGet();
+   }
+
+   /**
+    * Ends a subscription started with subscribe(). Publishing every n steps stops once no observer is subscribed anymore.
+    */
+   public void unsubscribe() {
+      subscribers.decrementAndGet();
+   }
+
+   /**
+    * Asks for the state of a future step to be published, independent of subscriptions.
+    * @param step step number
+    */
+   public void request(long step) {
+      requested.add(step);
+   }
+
+   /**
+    * @param step number of the completed step
+    * @return true if an observer is interested in the state of this step
+    */
+   public boolean wanted(long step) {
+      return (subscribers.get() > 0 && step % everyNSteps == 0) || requested.contains(step);
+   }
+
+   /**
+    * Copies the current state and makes it visible to readers. Must only be called by the simulation thread.
+    * @param step number of the completed step
+    * @param t time in simulation in s
+    * @param objects all objects in the simulation
+    * @return published snapshot
+    */
+   public Snapshot publish(long step, double t, List<PhysicsObject3D> objects) {
+      return publish(step, t, objects, Collections.emptyList());
+   }
+
+   /**
+    * Copies the current state and the current reports of the analyzers and makes them visible to readers. Analyzers are
+    * updated by the simulation thread, so this is the only way for other threads to see their results. Must only be called by
+    * the simulation thread.
+    * @param step number of the completed step
+    * @param t time in simulation in s
+    * @param objects all objects in the simulation
+    * @param analyzers analyzers to report
+    * @return published snapshot
+    */
+   public Snapshot publish(long step, double t, List<PhysicsObject3D> objects, List<? extends Analyzer> analyzers) {
+      Snapshot snapshot = new Snapshot(step, t, objects, analyzers);
+      history.set((int) (published++ % history.length()), snapshot);
+      latest = snapshot;
+      // requests up to this step are answered or can no longer be
+      requested.headSet(step, true).clear();
+      return snapshot;
+   }
+
+   /**
+    * @return most recently published snapshot, null if nothing was published yet
+    */
+   public Snapshot latest() {
+      return latest;
+   }
+
+   /**
+    * Looks up the state at a specific step in O(capacity).
+    * @param step step number
+    * @return snapshot of that step or null if it was not published or has already been overwritten
+    */
+   public Snapshot get(long step) {
+      for (int i = 0; i < history.length(); i++) {
+         Snapshot snapshot = history.get(i);
+         if (snapshot != null && snapshot.step == step)
+            return snapshot;
+      }
+      return null;
+   }
+}
@@ -3,6 +3,11 @@
  */
 package physicssim;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -14,5 +19,261 @@ public class AppTest {
             assertTrue("Please assign value larger than 0", Setup.PRINT_DT_S > 0);
             assertTrue("Please assign value lower than simulation time, otherwise there will be no feedback during runtime", Setup.SIM_T_S > Setup.PRINT_DT_S);
         }
+        assertTrue("Cannot use a negative number of worker processes", Setup.WORKER_PROCESSES >= 0);
+    }
+
+    @Test public void testDomainDecomposition() {
+        List<PhysicsObject3D> objects = cluster(101);
+        List<Domain> domains = Domain.orb(objects, 6);
+        assertEquals(6, domains.size());
+
+        int[] owned = new int[domains.size()];
+        for (PhysicsObject3D obj : objects) {
+            int owner = Domain.owner(domains, obj.s);
+            owned[owner]++;
+            for (int i = 0; i < domains.size(); i++)
+                assertEquals("Object has to lie in exactly one domain", i == owner, domains.get(i).contains(obj.s));
+        }
+        for (int count : owned)
+            assertTrue("Domains should be balanced", Math.abs(count - 101 / 6) <= 1);
+    }
+
+    @Test public void testDistributedStep() throws Exception {
+        List<PhysicsObject3D> objects = cluster(40);
+        List<PhysicsObject3D> expected = new ArrayList<>();
+        objects.forEach((obj) -> expected.add(obj.clone()));
+        for (int i = 0; i < 2; i++)
+            Model.step(expected, Gravity.Solver.PAIRWISE, 3600, null);
+
+        List<PhysicsObject3D> result;
+        try (DomainCoordinator coordinator = new DomainCoordinator(3)) {
+            coordinator.distribute(objects);
+            // theta = 0 never summarises a cell, so the result has to be exact
+            coordinator.step(3600, 0, null);
+            coordinator.rebalance();
+            coordinator.step(3600, 0, null);
+            result = coordinator.gather();
+        }
+        assertEquals(expected.size(), result.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).name, result.get(i).name);
+            assertArrayEquals(expected.get(i).s.vector, result.get(i).s.vector, 1e-9 * expected.get(i).s.length());
+            assertArrayEquals(expected.get(i).v.vector, result.get(i).v.vector, 1e-9 * expected.get(i).v.length());
+        }
+    }
+
+    @Test public void testDistributedTreesOnlyExchangeBoundaries() throws Exception {
+        int n = 4096;
+        List<PhysicsObject3D> objects = cluster(n);
+        List<PhysicsObject3D> expected = new ArrayList<>();
+        objects.forEach((obj) -> expected.add(obj.clone()));
+        Model.step(expected, Gravity.Solver.PAIRWISE, 1, null);
+
+        try (DomainCoordinator coordinator = new DomainCoordinator(4)) {
+            coordinator.distribute(objects);
+            coordinator.step(1, 0.5, null);
+            for (int i = 0; i < 4; i++) {
+                int received = coordinator.getImportedObjects()[i] + coordinator.getImportedSummaries()[i];
+                assertTrue("Worker " + i + " received " + received + " of " + n + " objects", received < n / 2);
+            }
+
+            // Opening angle 0.5 keeps the force error small
+            List<PhysicsObject3D> result = coordinator.gather();
+            double error = 0;
+            for (int i = 0; i < n; i++)
+                error += Vector3D.distance(expected.get(i).a, result.get(i).a) / expected.get(i).a.length() / n;
+            assertTrue("Mean relative force error " + error, error < 1e-2);
+        }
+    }
+
+    @Test public void testDistributedCollision() throws Exception {
+        // The two objects in the middle overlap across the cut between both domains
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        objects.add(new PhysicsObject3D("Left", Util.R_EARTH, Util.M_EARTH, new double[]{-Util.AU, 0, 0}));
+        objects.add(new PhysicsObject3D("A", Util.R_MOON, Util.M_MOON, new double[]{-1000, 0, 0}));
+        objects.add(new PhysicsObject3D("B", Util.R_MOON, Util.M_MOON, new double[]{1000, 0, 0}));
+        objects.add(new PhysicsObject3D("Right", Util.R_EARTH, Util.M_EARTH, new double[]{Util.AU, 0, 0}));
+
+        List<String> collisions = new ArrayList<>();
+        List<PhysicsObject3D> result;
+        try (DomainCoordinator coordinator = new DomainCoordinator(2)) {
+            coordinator.distribute(objects);
+            coordinator.step(1, 0.5, (obj, obj2, collisionObj) -> collisions.add(obj.name + "+" + obj2.name));
+            assertArrayEquals(new int[]{2, 2}, coordinator.getOwnedObjects());
+            result = coordinator.gather();
+        }
+        assertEquals(List.of("A+B"), collisions);
+        assertEquals(3, result.size());
+        assertEquals(2 * Util.M_MOON, result.get(2).m, 1);
+    }
+
+    @Test public void testEphemerisInterpolation() throws Exception {
+        File file = File.createTempFile("ephemeris", ".bin");
+        file.deleteOnExit();
+        // Earth on an ideal circular orbit, sampled daily
+        double omega = 2 * Math.PI / Util.ORBITAL_PERIOD_EARTH;
+        PhysicsObject3D earth = new PhysicsObject3D("Earth", Util.R_EARTH, Util.M_EARTH, new double[3]);
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        objects.add(earth);
+        try (Ephemeris ephemeris = new Ephemeris(file, 4)) {
+            for (int day = 0; day <= 365; day++) {
+                double t = day * 86400d;
+                earth.s.setVector(new double[]{Util.AU * Math.cos(omega * t), Util.AU * Math.sin(omega * t), 0});
+                earth.v.setVector(new double[]{-Util.AU * omega * Math.sin(omega * t), Util.AU * omega * Math.cos(omega * t), 0});
+                ephemeris.record(t, objects);
+            }
+        }
+        // every sample is stored once: t, s and v plus block headers and index
+        assertTrue("Ephemeris not compact: " + file.length() + " bytes", file.length() < 366 * 7 * Double.BYTES + 512);
+
+        try (Ephemeris ephemeris = Ephemeris.open(file, 4)) {
+            for (double t = 0; t < 365 * 86400d; t += 12345.6) {
+                Vector3D expected = new Vector3D(Util.AU * Math.cos(omega * t), Util.AU * Math.sin(omega * t), 0);
+                assertTrue("Interpolated position too far off at " + t, Vector3D.distance(expected, ephemeris.position("Earth", t)) < 1000);
+                assertEquals(Util.AU * omega, ephemeris.velocity("Earth", t).length(), 1e-3);
+            }
+        }
+
+        // Recording after reopening continues the trajectory. The process dies before closing, so the next open has to
+        // recover everything from the block headers.
+        Ephemeris crashed = Ephemeris.open(file, 4);
+        double tEnd = 366 * 86400d;
+        earth.s.setVector(new double[]{Util.AU * Math.cos(omega * tEnd), Util.AU * Math.sin(omega * tEnd), 0});
+        earth.v.setVector(new double[]{-Util.AU * omega * Math.sin(omega * tEnd), Util.AU * omega * Math.cos(omega * tEnd), 0});
+        crashed.record(tEnd, objects);
+        crashed.position("Earth", tEnd);
+        try (Ephemeris ephemeris = Ephemeris.open(file, 4)) {
+            for (double t = 0; t <= tEnd; t += 12345.6) {
+                Vector3D expected = new Vector3D(Util.AU * Math.cos(omega * t), Util.AU * Math.sin(omega * t), 0);
+                assertTrue("Recovered position too far off at " + t, Vector3D.distance(expected, ephemeris.position("Earth", t)) < 1000);
+            }
+        }
+    }
+
+    @Test public void testSnapshotPublishing() {
+        SnapshotPublisher publisher = new SnapshotPublisher(4, 4);
+        List<PhysicsObject3D> objects = cluster(3);
+        assertFalse("Nobody is interested yet", publisher.wanted(4));
+        publisher.request(3);
+        publisher.subscribe();
+        for (long step = 0; step < 40; step++) {
+            objects.get(0).s.vector[0] = step;
+            if (publisher.wanted(step))
+                publisher.publish(step, step * 10d, objects);
+        }
+        objects.get(0).s.vector[0] = -1;
+
+        assertEquals(36, publisher.latest().step);
+        assertEquals(36, publisher.latest().position(0).vector[0], 0);
+        // history is not limited by the publishing interval
+        for (long step = 24; step <= 36; step += 4)
+            assertEquals(step, publisher.get(step).position(0).vector[0], 0);
+        assertNull("Step should have been overwritten", publisher.get(20));
+        assertNull("Step was never published", publisher.get(37));
+
+        // readers only ever get copies
+        publisher.latest().objects().get(0).s.vector[0] = -2;
+        publisher.latest().position(0).vector[0] = -2;
+        assertEquals(36, publisher.latest().position(0).vector[0], 0);
+    }
+
+    @Test public void testPairwiseGravity() {
+        List<PhysicsObject3D> objects = cluster(20);
+        objects.add(new PhysicsObject3D("Massless", 1, 0, new double[]{Util.AU, Util.AU, 0}));
+        List<PhysicsObject3D> expected = new ArrayList<>();
+        objects.forEach((obj) -> expected.add(obj.clone()));
+        expected.forEach((obj) -> Gravity.apply(obj, expected));
+
+        Gravity.applyPairwise(objects);
+        for (int i = 0; i < objects.size(); i++)
+            assertArrayEquals(expected.get(i).a.vector, objects.get(i).a.vector, 1e-9 * expected.get(i).a.length());
+    }
+
+    @Test public void testAutoTunerMeetsAccuracyTarget() {
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        objects.add(Util.SUN.clone());
+        objects.add(Util.EARTH.clone());
+        AutoTuner.Configuration configuration = AutoTuner.tune(objects, 10, 2000, 86400, 1e-7);
+        assertTrue("Chosen configuration misses accuracy target: " + configuration, configuration.energyError <= 1e-7);
+
+        // the target has to hold over the whole interval, not just the short profiling run
+        double initialEnergy = Gravity.totalEnergy(objects);
+        for (long step = 0; step < Math.round(86400 / configuration.dtS); step++)
+            Model.step(objects, configuration.solver, configuration.dtS, null);
+        double energyError = Math.abs((Gravity.totalEnergy(objects) - initialEnergy) / initialEnergy);
+        assertTrue("Energy error over the interval " + energyError + " for " + configuration, energyError <= 1.1e-7);
+    }
+
+    @Test public void testOrbitAnalysis() {
+        // Earth on an orbit with eccentricity 0.5, starting in perihelion
+        double mu = Util.G_CONST * (Util.M_SUN + Util.M_EARTH);
+        double period = 2 * Math.PI * Math.sqrt(Math.pow(Util.AU, 3) / mu);
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        objects.add(new PhysicsObject3D("Sun", Util.R_SUN, Util.M_SUN, new double[3]));
+        objects.add(new PhysicsObject3D("Earth", Util.R_EARTH, Util.M_EARTH, new double[]{Util.AU / 2, 0, 0}, new double[]{0, Math.sqrt(3 * mu / Util.AU), 0}));
+
+        OrbitAnalyzer orbit = new OrbitAnalyzer("Earth", "Sun");
+        DistanceAnalyzer distance = new DistanceAnalyzer("Earth", "Sun");
+        EnergyDriftAnalyzer energy = new EnergyDriftAnalyzer();
+        List<Analyzer> analyzers = List.of(orbit, distance, energy);
+        analyzers.forEach((analyzer) -> analyzer.update(0, objects));
+        assertEquals(Util.AU, orbit.getSemiMajorAxis(), 1e-9 * Util.AU);
+        assertEquals(0.5, orbit.getEccentricity(), 1e-9);
+        assertTrue(Double.isNaN(orbit.getPeriod()));
+
+        for (int step = 1; step * 100d < 2.5 * period; step++) {
+            Model.step(objects, Gravity.Solver.PAIRWISE, 100, null);
+            double t = step * 100d;
+            analyzers.forEach((analyzer) -> analyzer.update(t, objects));
+        }
+        assertEquals(period, orbit.getPeriod(), 1e-2 * period);
+        assertEquals(period, orbit.getLastPeriod(), 1e-2 * period);
+        assertEquals(Util.AU / 2, distance.getMin(), 1e-2 * Util.AU);
+        assertEquals(Util.AU * 1.5, distance.getMax(), 1e-2 * Util.AU);
+        assertTrue(energy.getMaxDrift() < 1e-2);
+
+        // other threads see the reports of the step a snapshot was published in
+        Snapshot snapshot = new SnapshotPublisher(1, 1).publish(1, 2.5 * period, objects, analyzers);
+        assertEquals(distance.report(), snapshot.reports().get(1));
+    }
+
+    @Test public void testOrbitAnalysisWithoutOrbit() {
+        // Earth falling straight towards the Sun, the Moon does not exist
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        objects.add(new PhysicsObject3D("Sun", Util.R_SUN, Util.M_SUN, new double[3]));
+        objects.add(new PhysicsObject3D("Earth", Util.R_EARTH, Util.M_EARTH, new double[]{Util.AU, 0, 0}, new double[]{-1000, 0, 0}));
+
+        OrbitAnalyzer orbit = new OrbitAnalyzer("Earth", "Sun");
+        DistanceAnalyzer distance = new DistanceAnalyzer("Earth", "Moon");
+        for (int step = 0; step < 100; step++) {
+            if (step > 0)
+                Model.step(objects, Gravity.Solver.PAIRWISE, 3600, null);
+            orbit.update(step * 3600d, objects);
+            distance.update(step * 3600d, objects);
+        }
+        assertEquals(1, orbit.getEccentricity(), 1e-9);
+        assertTrue(Double.isNaN(orbit.getInclination()));
+        assertTrue(Double.isNaN(orbit.getPeriod()));
+        assertTrue(orbit.report().contains("radial"));
+        assertTrue(Double.isNaN(distance.getMin()));
+        assertTrue(distance.report().contains("never"));
+
+        // once the object moves sideways the crossing plane is chosen and orbits are counted
+        objects.get(1).v.vector[1] = Math.sqrt(Util.G_CONST * Util.M_SUN / Util.AU);
+        orbit.update(100 * 3600d, objects);
+        assertFalse(Double.isNaN(orbit.getInclination()));
+        assertFalse(orbit.report().contains("NaN°"));
+    }
+
+    /**
+     * Deterministic pseudo random cloud of sun like objects within 100 AU
+     */
+    private static List<PhysicsObject3D> cluster(int n) {
+        Random random = new Random(42);
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            objects.add(new PhysicsObject3D("Star " + i, Util.R_SUN, Util.M_SUN * (0.5 + random.nextDouble()),
+                    new double[]{random.nextGaussian() * 100 * Util.AU, random.nextGaussian() * 100 * Util.AU, random.nextGaussian() * 100 * Util.AU}));
+        return objects;
     }
 }
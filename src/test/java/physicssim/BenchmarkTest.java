@@ -0,0 +1,424 @@
+package physicssim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy versus cost benchmark. Runs reference scenarios with every solver at several timesteps, compares them against
+ * analytic solutions or the golden reference trajectories of ReferenceOrbits and prints the results as Pareto curves of
+ * force evaluations against position error. Sun-Earth-Moon includes the timestep the simulator is configured with
+ * (Setup.DT_MS).
+ * <p>
+ * Fails if a configuration got more expensive or less accurate than recorded in src/test/resources/benchmark/frontier.csv.
+ * Every recorded row lists the errors it is checked on, runs that lost their reference orbit entirely are not checked on
+ * position (see Scenario.saturationM).
+ * Run with {@code ./gradlew benchmark}, after an intended change record the new frontier with
+ * {@code ./gradlew benchmark -Dbenchmark.update=true}.
+ */
+public class BenchmarkTest {
+
+    /**
+     * Recorded results every run is compared against
+     */
+    private static final String FRONTIER = "benchmark/frontier.csv";
+
+    /**
+     * Relative amount by which an error may grow before it counts as a regression (allows for floating point differences
+     * between platforms)
+     */
+    private static final double TOLERANCE = 0.01;
+
+    /**
+     * Relative energy and momentum errors below this are treated as rounding noise
+     */
+    private static final double RELATIVE_ERROR_FLOOR = 1e-12;
+
+    /**
+     * Position errors below this (in m) are treated as rounding noise
+     */
+    private static final double POSITION_ERROR_FLOOR = 1;
+
+    private static final Gravity.Solver[] SOLVERS = {Gravity.Solver.DIRECT, Gravity.Solver.PAIRWISE};
+
+    /**
+     * Initial objects, duration and accuracy reference of one benchmark run
+     */
+    private abstract static class Scenario {
+        final String name;
+
+        /**
+         * simulated time in s
+         */
+        final double tS;
+
+        /**
+         * time between two comparisons with the reference in s
+         */
+        final double sampleDtS;
+
+        /**
+         * timesteps to run, each has to divide sampleDtS
+         */
+        final double[] dtS;
+
+        /**
+         * number of objects left at the end
+         */
+        final int expectedObjects;
+
+        /**
+         * position error in m at which a run has lost the reference entirely (e.g. a planet on the wrong side of its orbit).
+         * From there on the error only grows with the size of the orbit, so such runs are not checked on position.
+         */
+        final double saturationM;
+
+        Scenario(String name, double tS, double sampleDtS, double[] dtS, int expectedObjects, double saturationM) {
+            this.name = name;
+            this.tS = tS;
+            this.sampleDtS = sampleDtS;
+            this.dtS = dtS;
+            this.expectedObjects = expectedObjects;
+            this.saturationM = saturationM;
+        }
+
+        /**
+         * @return fresh copies of the initial objects
+         */
+        abstract List<PhysicsObject3D> objects() throws IOException;
+
+        /**
+         * @param t time of the sample in s
+         * @param objects simulated objects at time t
+         * @return largest distance of any object (or of the quantity the scenario checks) from the reference in m
+         */
+        abstract double positionError(double t, List<PhysicsObject3D> objects);
+
+        /**
+         * @param t time of the sample in s
+         * @param initialEnergy total energy at t = 0 in J
+         * @return total energy the objects should have at time t in J, gravity alone conserves the initial energy
+         */
+        double expectedEnergy(double t, double initialEnergy) {
+            return initialEnergy;
+        }
+
+        /**
+         * @param t time of the sample in s
+         * @param initialMomentum total momentum at t = 0 in kg m/s
+         * @return total momentum the objects should have at time t in kg m/s, gravity alone conserves the initial momentum
+         */
+        double[] expectedMomentum(double t, double[] initialMomentum) {
+            return initialMomentum;
+        }
+    }
+
+    /**
+     * Measurements of one scenario with one solver and timestep
+     */
+    private static class Result {
+        String scenario;
+        Gravity.Solver solver;
+        double dtS;
+        long wallNs;
+        long forceEvaluations;
+        double energyError;
+        double momentumError;
+        double positionError;
+        boolean positionChecked;
+
+        String key() {
+            return String.format(Locale.ROOT, "%s,%s,%s", scenario, solver, dtS);
+        }
+
+        /**
+         * @return errors this result is checked on, separated by spaces
+         */
+        String checks() {
+            return "energy momentum" + (positionChecked ? " position" : "");
+        }
+    }
+
+    @Test public void testAccuracyVersusCost() throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (Scenario scenario : scenarios())
+            for (Gravity.Solver solver : SOLVERS)
+                for (double dtS : scenario.dtS)
+                    results.add(run(scenario, solver, dtS));
+        printParetoCurves(results);
+
+        if (Boolean.getBoolean("benchmark.update")) {
+            writeFrontier(results);
+            return;
+        }
+
+        Map<String, Result> frontier = readFrontier();
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            Result recorded = frontier.get(result.key());
+            if (recorded == null)
+                regressions.add(result.key() + ": not recorded, run with -Dbenchmark.update=true");
+            else if (result.forceEvaluations > recorded.forceEvaluations
+                    || exceeds(result.energyError, recorded.energyError, RELATIVE_ERROR_FLOOR)
+                    || exceeds(result.momentumError, recorded.momentumError, RELATIVE_ERROR_FLOOR)
+                    || recorded.positionChecked && exceeds(result.positionError, recorded.positionError, POSITION_ERROR_FLOOR))
+                regressions.add(String.format(Locale.ROOT, "%s: now %d force evaluations, errors E %.3e, p %.3e, s %.3em; recorded %d, %.3e, %.3e, %.3em",
+                        result.key(), result.forceEvaluations, result.energyError, result.momentumError, result.positionError,
+                        recorded.forceEvaluations, recorded.energyError, recorded.momentumError, recorded.positionError));
+        }
+        assertTrue("Configurations fell behind the recorded frontier:\n" + String.join("\n", regressions), regressions.isEmpty());
+    }
+
+    private static boolean exceeds(double error, double recorded, double floor) {
+        // written negated so NaN counts as exceeding
+        return !(error <= Math.max(recorded * (1 + TOLERANCE), floor));
+    }
+
+    private static Result run(Scenario scenario, Gravity.Solver solver, double dtS) throws IOException {
+        List<PhysicsObject3D> objects = scenario.objects();
+        double initialEnergy = Gravity.totalEnergy(objects);
+        double[] initialMomentum = momentum(objects);
+        double momentumScale = 0;
+        for (PhysicsObject3D obj : objects)
+            momentumScale += obj.m * obj.v.length();
+
+        Result result = new Result();
+        result.scenario = scenario.name;
+        result.solver = solver;
+        result.dtS = dtS;
+
+        long stepsPerSample = Math.round(scenario.sampleDtS / dtS);
+        long samples = (long) (scenario.tS / scenario.sampleDtS);
+        double t = 0;
+        for (long sample = 0; sample <= samples; sample++) {
+            if (sample > 0) {
+                long timerStart = System.nanoTime();
+                for (long step = 0; step < stepsPerSample; step++)
+                    result.forceEvaluations += Model.step(objects, solver, dtS, null);
+                result.wallNs += System.nanoTime() - timerStart;
+            }
+            t = sample * scenario.sampleDtS;
+            result.energyError = Math.max(result.energyError, Math.abs((Gravity.totalEnergy(objects) - scenario.expectedEnergy(t, initialEnergy)) / initialEnergy));
+            result.positionError = Math.max(result.positionError, scenario.positionError(t, objects));
+        }
+
+        double[] finalMomentum = momentum(objects);
+        result.momentumError = Vector3D.distance(new Vector3D(finalMomentum), new Vector3D(scenario.expectedMomentum(t, initialMomentum))) / momentumScale;
+        result.positionChecked = result.positionError < scenario.saturationM;
+
+        assertEquals(result.key() + ": objects left", scenario.expectedObjects, objects.size());
+        return result;
+    }
+
+    private static double[] momentum(List<PhysicsObject3D> objects) {
+        double[] p = new double[3];
+        for (PhysicsObject3D obj : objects)
+            for (int i = 0; i < 3; i++)
+                p[i] += obj.m * obj.v.vector[i];
+        return p;
+    }
+
+    private static List<Scenario> scenarios() throws IOException {
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(kepler());
+        scenarios.add(reference("sun-earth-moon", ReferenceOrbits.SUN_EARTH_MOON, ReferenceOrbits.SUN_EARTH_MOON_T_S,
+                ReferenceOrbits.SUN_EARTH_MOON_SAMPLE_DT_S, new double[]{10, 30, 100, 300, 1000, 3000}, Util.AU));
+        scenarios.add(reference("plummer", ReferenceOrbits.PLUMMER, ReferenceOrbits.PLUMMER_T_S,
+                ReferenceOrbits.PLUMMER_SAMPLE_DT_S, new double[]{1e6, 2.5e6, 5e6, 1e7}, Double.POSITIVE_INFINITY));
+        scenarios.add(collisionCascade());
+        return scenarios;
+    }
+
+    /**
+     * Earth mass planet on an orbit with eccentricity 0.5 around a sun, compared against the analytic solution of Kepler's equation
+     */
+    private static Scenario kepler() {
+        double m1 = Util.M_SUN;
+        double m2 = Util.M_EARTH;
+        double a = Util.AU;
+        double e = 0.5;
+        double mu = Util.G_CONST * (m1 + m2);
+        double n = Math.sqrt(mu / (a * a * a));
+
+        return new Scenario("kepler", 36 * 864000, 864000, new double[]{100, 400, 1600, 6400}, 2, Double.POSITIVE_INFINITY) {
+            @Override
+            List<PhysicsObject3D> objects() {
+                // start in perihelion with the center of mass at rest in the origin
+                double r = a * (1 - e);
+                double v = Math.sqrt(mu / a * (1 + e) / (1 - e));
+                List<PhysicsObject3D> objects = new ArrayList<>();
+                objects.add(new PhysicsObject3D("Sun", Util.R_SUN, m1, new double[]{-r * m2 / (m1 + m2), 0, 0}, new double[]{0, -v * m2 / (m1 + m2), 0}));
+                objects.add(new PhysicsObject3D("Planet", Util.R_EARTH, m2, new double[]{r * m1 / (m1 + m2), 0, 0}, new double[]{0, v * m1 / (m1 + m2), 0}));
+                return objects;
+            }
+
+            @Override
+            double positionError(double t, List<PhysicsObject3D> objects) {
+                // eccentric anomaly E from mean anomaly M = E - e sin(E)
+                double meanAnomaly = n * t;
+                double E = meanAnomaly;
+                for (int i = 0; i < 50; i++)
+                    E -= (E - e * Math.sin(E) - meanAnomaly) / (1 - e * Math.cos(E));
+                Vector3D expected = new Vector3D(a * (Math.cos(E) - e), a * Math.sqrt(1 - e * e) * Math.sin(E), 0);
+                return Vector3D.distance(Vector3D.substract(objects.get(1).s, objects.get(0).s), expected);
+            }
+        };
+    }
+
+    /**
+     * Scenario compared against a reference file of ReferenceOrbits, starting from its first sample
+     */
+    private static Scenario reference(String name, String file, double tS, double sampleDtS, double[] dtS, double saturationM) throws IOException {
+        Map<Double, List<PhysicsObject3D>> reference = ReferenceOrbits.read(file);
+        List<PhysicsObject3D> initial = reference.get(0d);
+        if (file.equals(ReferenceOrbits.SUN_EARTH_MOON))
+            assertSameState("Setup.addModelledObjects() changed, regenerate the reference orbits", ReferenceOrbits.sunEarthMoon(), initial);
+
+        return new Scenario(name, tS, sampleDtS, dtS, initial.size(), saturationM) {
+            @Override
+            List<PhysicsObject3D> objects() {
+                List<PhysicsObject3D> objects = new ArrayList<>();
+                initial.forEach((obj) -> objects.add(obj.clone()));
+                return objects;
+            }
+
+            @Override
+            double positionError(double t, List<PhysicsObject3D> objects) {
+                Map<String, PhysicsObject3D> expected = new HashMap<>();
+                reference.get(t).forEach((obj) -> expected.put(obj.name, obj));
+                double error = 0;
+                for (PhysicsObject3D obj : objects)
+                    error = Math.max(error, Vector3D.distance(obj.s, expected.get(obj.name).s));
+                return error;
+            }
+        };
+    }
+
+    private static void assertSameState(String message, List<PhysicsObject3D> expected, List<PhysicsObject3D> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.get(i).name, actual.get(i).name);
+            assertEquals(message, expected.get(i).m, actual.get(i).m, 0);
+            assertArrayEquals(expected.get(i).s.vector, actual.get(i).s.vector, 0);
+            assertArrayEquals(expected.get(i).v.vector, actual.get(i).v.vector, 0);
+        }
+    }
+
+    /**
+     * Chain of eight moons pulling each other together until a single object is left, compared against the reference of
+     * ReferenceOrbits that merges with the same rule. Merges change energy and momentum, so both are compared against the
+     * reference at the same time. The simulator names merged objects differently, so the position error is the distance
+     * between the centers of mass.
+     */
+    private static Scenario collisionCascade() throws IOException {
+        Map<Double, List<PhysicsObject3D>> reference = ReferenceOrbits.read(ReferenceOrbits.COLLISION_CASCADE);
+        List<PhysicsObject3D> initial = reference.get(0d);
+        assertSameState("Collision cascade changed, regenerate the reference orbits", ReferenceOrbits.collisionCascade(), initial);
+        int expectedObjects = reference.get(ReferenceOrbits.COLLISION_CASCADE_T_S).size();
+
+        return new Scenario("collision-cascade", ReferenceOrbits.COLLISION_CASCADE_T_S, ReferenceOrbits.COLLISION_CASCADE_SAMPLE_DT_S,
+                new double[]{10, 30, 100, 300}, expectedObjects, Double.POSITIVE_INFINITY) {
+            @Override
+            List<PhysicsObject3D> objects() {
+                List<PhysicsObject3D> objects = new ArrayList<>();
+                initial.forEach((obj) -> objects.add(obj.clone()));
+                return objects;
+            }
+
+            @Override
+            double positionError(double t, List<PhysicsObject3D> objects) {
+                return Vector3D.distance(centerOfMass(objects), centerOfMass(reference.get(t)));
+            }
+
+            @Override
+            double expectedEnergy(double t, double initialEnergy) {
+                return Gravity.totalEnergy(reference.get(t));
+            }
+
+            @Override
+            double[] expectedMomentum(double t, double[] initialMomentum) {
+                return momentum(reference.get(t));
+            }
+        };
+    }
+
+    private static Vector3D centerOfMass(List<PhysicsObject3D> objects) {
+        double m = 0;
+        Vector3D com = new Vector3D();
+        for (PhysicsObject3D obj : objects) {
+            m += obj.m;
+            for (int i = 0; i < 3; i++)
+                com.vector[i] += obj.m * obj.s.vector[i];
+        }
+        com.scale(1 / m);
+        return com;
+    }
+
+    private static void printParetoCurves(List<Result> results) {
+        String scenario = null;
+        for (Result result : results) {
+            if (!result.scenario.equals(scenario)) {
+                scenario = result.scenario;
+                System.out.println(String.format("\n%s (* = on the Pareto frontier of force evaluations and position error)", scenario));
+                System.out.println(String.format("%-9s %8s %10s %16s %12s %12s %12s %-2s %s", "solver", "dt [s]", "wall [ms]", "force evals", "energy err", "momentum err", "pos err [m]", "", "checked"));
+            }
+            boolean dominated = false;
+            for (Result other : results)
+                if (other.scenario.equals(result.scenario) && other.forceEvaluations <= result.forceEvaluations && other.positionError <= result.positionError
+                        && (other.forceEvaluations < result.forceEvaluations || other.positionError < result.positionError))
+                    dominated = true;
+            System.out.println(String.format(Locale.ROOT, "%-9s %8.0f %10.1f %16d %12.3e %12.3e %12.3e %-2s %s", result.solver, result.dtS, result.wallNs / 1e6,
+                    result.forceEvaluations, result.energyError, result.momentumError, result.positionError, dominated ? "" : "*", result.checks()));
+        }
+    }
+
+    private static void writeFrontier(List<Result> results) throws IOException {
+        File file = new File("src/test/resources/" + FRONTIER);
+        file.getParentFile().mkdirs();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("# scenario,solver,dt,force evaluations,energy error,momentum error,position error,checked errors");
+            for (Result result : results)
+                out.println(String.format(Locale.ROOT, "%s,%d,%.17g,%.17g,%.17g,%s", result.key(), result.forceEvaluations,
+                        result.energyError, result.momentumError, result.positionError, result.checks()));
+        }
+    }
+
+    private static Map<String, Result> readFrontier() throws IOException {
+        Map<String, Result> frontier = new HashMap<>();
+        try (InputStream in = BenchmarkTest.class.getResourceAsStream("/" + FRONTIER)) {
+            if (in == null)
+                throw new IOException("Missing " + FRONTIER + ", record it with -Dbenchmark.update=true");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#"))
+                    continue;
+                String[] values = line.split(",");
+                Result result = new Result();
+                result.scenario = values[0];
+                result.solver = Gravity.Solver.valueOf(values[1]);
+                result.dtS = Double.parseDouble(values[2]);
+                result.forceEvaluations = Long.parseLong(values[3]);
+                result.energyError = Double.parseDouble(values[4]);
+                result.momentumError = Double.parseDouble(values[5]);
+                result.positionError = Double.parseDouble(values[6]);
+                result.positionChecked = Arrays.asList(values[7].split(" ")).contains("position");
+                frontier.put(result.key(), result);
+            }
+        }
+        return frontier;
+    }
+}
@@ -0,0 +1,301 @@
+package physicssim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Golden reference trajectories for BenchmarkTest. The trajectories are calculated independently of the simulator with a
+ * fourth order Runge-Kutta integrator at a small timestep and stored in src/test/resources/reference. Only the collision
+ * cascade uses the simulator, for its merge rule (Model.handleCollisions).
+ * <p>
+ * Regenerate them with {@code ./gradlew referenceOrbits} only when the scenarios themselves change.
+ */
+public class ReferenceOrbits {
+
+    /**
+     * Directory the reference files are written to, relative to the project directory
+     */
+    private static final String DIRECTORY = "src/test/resources/reference";
+
+    /**
+     * Sun-Earth-Moon as in Setup.addModelledObjects(), over 10 years
+     */
+    public static final String SUN_EARTH_MOON = "sun-earth-moon.csv";
+
+    public static final double SUN_EARTH_MOON_T_S = 10d * Util.ORBITAL_PERIOD_EARTH;
+
+    public static final double SUN_EARTH_MOON_SAMPLE_DT_S = 30 * 86400;
+
+    private static final double SUN_EARTH_MOON_RK4_DT_S = 60;
+
+    /**
+     * Plummer sphere of 64 stars with a scale radius of 1000 AU, over about a quarter dynamical time
+     */
+    public static final String PLUMMER = "plummer.csv";
+
+    public static final double PLUMMER_T_S = 5e9;
+
+    public static final double PLUMMER_SAMPLE_DT_S = 5e8;
+
+    private static final double PLUMMER_RK4_DT_S = 1e5;
+
+    public static final int PLUMMER_N = 64;
+
+    public static final double PLUMMER_A = 1000 * Util.AU;
+
+    /**
+     * Chain of eight moons pulling each other together until they merged into a single object, over a day
+     */
+    public static final String COLLISION_CASCADE = "collision-cascade.csv";
+
+    public static final double COLLISION_CASCADE_T_S = 86400;
+
+    public static final double COLLISION_CASCADE_SAMPLE_DT_S = 3600;
+
+    private static final double COLLISION_CASCADE_RK4_DT_S = 1;
+
+    public static void main(String[] args) throws IOException {
+        new File(DIRECTORY).mkdirs();
+
+        List<PhysicsObject3D> sunEarthMoon = sunEarthMoon();
+        write(new File(DIRECTORY, SUN_EARTH_MOON), "Sun-Earth-Moon from Setup.addModelledObjects(), RK4 dt = " + SUN_EARTH_MOON_RK4_DT_S + "s",
+                sunEarthMoon, SUN_EARTH_MOON_T_S, SUN_EARTH_MOON_SAMPLE_DT_S, SUN_EARTH_MOON_RK4_DT_S, false);
+
+        write(new File(DIRECTORY, PLUMMER), "Plummer sphere, N = " + PLUMMER_N + ", a = 1000 AU, RK4 dt = " + PLUMMER_RK4_DT_S + "s",
+                plummer(PLUMMER_N, 64 * Util.M_SUN, PLUMMER_A, new Random(1974)), PLUMMER_T_S, PLUMMER_SAMPLE_DT_S, PLUMMER_RK4_DT_S, false);
+
+        write(new File(DIRECTORY, COLLISION_CASCADE), "Collision cascade of eight moons merged by Model.handleCollisions, RK4 dt = "
+                + COLLISION_CASCADE_RK4_DT_S + "s", collisionCascade(), COLLISION_CASCADE_T_S, COLLISION_CASCADE_SAMPLE_DT_S,
+                COLLISION_CASCADE_RK4_DT_S, true);
+    }
+
+    /**
+     * @return eight moons in a row, 4 moon radii apart and moving alternately up and down at 1 m/s
+     */
+    public static List<PhysicsObject3D> collisionCascade() {
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            objects.add(new PhysicsObject3D("Moon " + i, Util.R_MOON, Util.M_MOON, new double[]{i * 4 * Util.R_MOON, 0, 0},
+                    new double[]{0, i % 2 == 0 ? 1 : -1, 0}));
+        return objects;
+    }
+
+    /**
+     * @return copies of the objects modelled by Setup
+     */
+    public static List<PhysicsObject3D> sunEarthMoon() {
+        Setup.physicsObjects.clear();
+        Setup.addModelledObjects();
+        List<PhysicsObject3D> objects = new ArrayList<>();
+        Setup.physicsObjects.forEach((obj) -> objects.add(obj.clone()));
+        Setup.physicsObjects.clear();
+        return objects;
+    }
+
+    /**
+     * Star cluster following the Plummer model (Aarseth, Henon and Lecar 1974) with its center of mass at rest in the origin
+     * @param n number of stars
+     * @param m total mass in kg
+     * @param a Plummer radius in m
+     * @param random source of randomness
+     * @return stars
+     */
+    public static List<PhysicsObject3D> plummer(int n, double m, double a, Random random) {
+        List<PhysicsObject3D> stars = new ArrayList<>();
+        double[] com = new double[6];
+        for (int i = 0; i < n; i++) {
+            double r;
+            do {
+                r = a / Math.sqrt(Math.pow(random.nextDouble(), -2d / 3) - 1);
+            } while (r > 10 * a);
+
+            // velocity as fraction q of the escape velocity by rejection sampling of q^2 (1 - q^2)^3.5
+            double q;
+            do {
+                q = random.nextDouble();
+            } while (0.1 * random.nextDouble() > q * q * Math.pow(1 - q * q, 3.5));
+            double v = q * Math.sqrt(2 * Util.G_CONST * m / a) * Math.pow(1 + r * r / (a * a), -0.25);
+
+            double[] s = isotropic(r, random);
+            double[] vel = isotropic(v, random);
+            stars.add(new PhysicsObject3D("Star " + i, Util.R_SUN, m / n, s, vel));
+            for (int j = 0; j < 3; j++) {
+                com[j] += s[j] / n;
+                com[3 + j] += vel[j] / n;
+            }
+        }
+        for (PhysicsObject3D star : stars) {
+            for (int j = 0; j < 3; j++) {
+                star.s.vector[j] -= com[j];
+                star.v.vector[j] -= com[3 + j];
+            }
+        }
+        return stars;
+    }
+
+    private static double[] isotropic(double length, Random random) {
+        double z = 2 * random.nextDouble() - 1;
+        double phi = 2 * Math.PI * random.nextDouble();
+        double xy = Math.sqrt(1 - z * z);
+        return new double[]{length * xy * Math.cos(phi), length * xy * Math.sin(phi), length * z};
+    }
+
+    /**
+     * Integrates the objects with RK4 and writes their state every sampleDt. With merge, touching objects are merged after
+     * every step.
+     */
+    private static void write(File file, String description, List<PhysicsObject3D> objects, double t, double sampleDt, double dt,
+            boolean merge) throws IOException {
+        objects = new ArrayList<>(objects);
+        int n = objects.size();
+        double[] m = new double[n];
+        double[] y = new double[6 * n];
+        for (int i = 0; i < n; i++) {
+            PhysicsObject3D obj = objects.get(i);
+            m[i] = obj.m;
+            System.arraycopy(obj.s.vector, 0, y, 6 * i, 3);
+            System.arraycopy(obj.v.vector, 0, y, 6 * i + 3, 3);
+        }
+
+        long stepsPerSample = Math.round(sampleDt / dt);
+        long samples = (long) (t / sampleDt);
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("# " + description);
+            out.println("# t,name,m,r,x,y,z,vx,vy,vz");
+            for (long sample = 0; sample <= samples; sample++) {
+                if (sample > 0) {
+                    for (long step = 0; step < stepsPerSample; step++) {
+                        y = rk4(m, y, dt);
+                        if (merge) {
+                            for (int i = 0; i < n; i++) {
+                                System.arraycopy(y, 6 * i, objects.get(i).s.vector, 0, 3);
+                                System.arraycopy(y, 6 * i + 3, objects.get(i).v.vector, 0, 3);
+                            }
+                            if (merge(objects)) {
+                                n = objects.size();
+                                m = new double[n];
+                                y = new double[6 * n];
+                                for (int i = 0; i < n; i++) {
+                                    PhysicsObject3D obj = objects.get(i);
+                                    m[i] = obj.m;
+                                    System.arraycopy(obj.s.vector, 0, y, 6 * i, 3);
+                                    System.arraycopy(obj.v.vector, 0, y, 6 * i + 3, 3);
+                                }
+                            }
+                        }
+                    }
+                }
+                for (int i = 0; i < n; i++)
+                    out.println(String.format(Locale.ROOT, "%.17g,%s,%.17g,%.17g,%.17g,%.17g,%.17g,%.17g,%.17g,%.17g", sample * sampleDt,
+                            objects.get(i).name, m[i], objects.get(i).r, y[6 * i], y[6 * i + 1], y[6 * i + 2], y[6 * i + 3], y[6 * i + 4], y[6 * i + 5]));
+            }
+        }
+    }
+
+    /**
+     * Replaces touching objects by their merged object (named after both), until no objects touch anymore
+     * @return true if any objects merged
+     */
+    private static boolean merge(List<PhysicsObject3D> objects) {
+        boolean merged = false;
+        for (int i = 0; i < objects.size(); i++) {
+            for (int j = i + 1; j < objects.size(); j++) {
+                PhysicsObject3D obj = objects.get(i);
+                PhysicsObject3D obj2 = objects.get(j);
+                if (Vector3D.distance(obj.s, obj2.s) < obj.r + obj2.r) {
+                    PhysicsObject3D collisionObj = Model.handleCollisions(obj, obj2);
+                    objects.remove(j);
+                    objects.remove(i);
+                    objects.add(new PhysicsObject3D(obj.name + "+" + obj2.name, collisionObj.r, collisionObj.m, collisionObj.s.vector,
+                            collisionObj.v.vector));
+                    merged = true;
+                    // start over, the merged object may touch others
+                    i = -1;
+                    break;
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static double[] rk4(double[] m, double[] y, double dt) {
+        double[] k1 = derivative(m, y);
+        double[] k2 = derivative(m, add(y, k1, dt / 2));
+        double[] k3 = derivative(m, add(y, k2, dt / 2));
+        double[] k4 = derivative(m, add(y, k3, dt));
+        double[] result = new double[y.length];
+        for (int i = 0; i < y.length; i++)
+            result[i] = y[i] + dt / 6 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]);
+        return result;
+    }
+
+    private static double[] add(double[] y, double[] k, double h) {
+        double[] result = new double[y.length];
+        for (int i = 0; i < y.length; i++)
+            result[i] = y[i] + h * k[i];
+        return result;
+    }
+
+    /**
+     * Time derivative of the state vector [x, y, z, vx, vy, vz] of all objects
+     */
+    private static double[] derivative(double[] m, double[] y) {
+        double[] dy = new double[y.length];
+        for (int i = 0; i < m.length; i++)
+            System.arraycopy(y, 6 * i + 3, dy, 6 * i, 3);
+        for (int i = 0; i < m.length; i++) {
+            for (int j = i + 1; j < m.length; j++) {
+                double[] d = new double[3];
+                double d2 = 0;
+                for (int k = 0; k < 3; k++) {
+                    d[k] = y[6 * j + k] - y[6 * i + k];
+                    d2 += d[k] * d[k];
+                }
+                double g = Util.G_CONST / (d2 * Math.sqrt(d2));
+                for (int k = 0; k < 3; k++) {
+                    dy[6 * i + 3 + k] += d[k] * g * m[j];
+                    dy[6 * j + 3 + k] -= d[k] * g * m[i];
+                }
+            }
+        }
+        return dy;
+    }
+
+    /**
+     * Reads a reference file from the test resources.
+     * @param name file name
+     * @return states of all objects by sample time, in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static Map<Double, List<PhysicsObject3D>> read(String name) throws IOException {
+        Map<Double, List<PhysicsObject3D>> samples = new LinkedHashMap<>();
+        try (InputStream in = ReferenceOrbits.class.getResourceAsStream("/reference/" + name)) {
+            if (in == null)
+                throw new IOException("Missing reference file " + name + ", generate it with ./gradlew referenceOrbits");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#"))
+                    continue;
+                String[] values = line.split(",");
+                double[] v = new double[values.length - 2];
+                for (int i = 0; i < v.length; i++)
+                    v[i] = Double.parseDouble(values[i + 2]);
+                samples.computeIfAbsent(Double.parseDouble(values[0]), (t) -> new ArrayList<>()).add(new PhysicsObject3D(values[1], v[1], v[0],
+                        new double[]{v[2], v[3], v[4]}, new double[]{v[5], v[6], v[7]}));
+            }
+        }
+        return samples;
+    }
+}